@@ -0,0 +1,203 @@
+/*
+ *    Copyright (c) 2019 Sangchul Go <luke.go@hardkernel.com>
+ *
+ *    OdroidThings is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as
+ *    published by the Free Software Foundation, either version 3 of the
+ *    License, or (at your option) any later version.
+ *
+ *    OdroidThings is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with OdroidThings.
+ *    If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.google.android.things.odroid;
+
+import android.os.IBinder;
+
+import android.util.Log;
+
+import java.io.PrintWriter;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Call counts and latencies of the binder methods of a service, kept per
+ * calling uid. Recording is lock free and does not allocate once a uid and
+ * method have been seen; only the first call of a new uid takes a lock.
+ * @hide
+ */
+class BinderCallStats {
+    private static final String TAG = "BinderCallStats";
+    private static final String TRANSACTION_PREFIX = "TRANSACTION_";
+
+    /**
+     * Layout of one record of {@link #toArray(int)}:
+     * uid, transaction code, calls, failures, total ns, cpu ns, max ns,
+     * p50 ns and p99 ns.
+     */
+    static final int RECORD_SIZE = 9;
+
+    static class MethodCalls {
+        final AtomicLong calls = new AtomicLong();
+        final AtomicLong failures = new AtomicLong();
+        final AtomicLong totalNs = new AtomicLong();
+        final AtomicLong cpuNs = new AtomicLong();
+        final AtomicLong maxNs = new AtomicLong();
+        final LatencyHistogram latency = new LatencyHistogram();
+
+        void record(long durationNs, long cpuDurationNs, boolean failed) {
+            calls.incrementAndGet();
+            if (failed)
+                failures.incrementAndGet();
+            totalNs.addAndGet(durationNs);
+            cpuNs.addAndGet(cpuDurationNs);
+            latency.record(durationNs);
+
+            long max;
+            while (durationNs > (max = maxNs.get())) {
+                if (maxNs.compareAndSet(max, durationNs))
+                    break;
+            }
+        }
+    }
+
+    static class UidCalls {
+        final int uid;
+        // by transaction code, created on the first call of each method.
+        final AtomicReferenceArray<MethodCalls> methods;
+
+        UidCalls(int uid, int methodCount) {
+            this.uid = uid;
+            methods = new AtomicReferenceArray<>(methodCount);
+        }
+
+        MethodCalls methodOf(int index) {
+            MethodCalls calls = methods.get(index);
+            if (calls == null) {
+                methods.compareAndSet(index, null, new MethodCalls());
+                calls = methods.get(index);
+            }
+            return calls;
+        }
+    }
+
+    private final String[] methodNames;
+    // copy-on-write, replaced under the instance lock.
+    private volatile UidCalls[] uids = new UidCalls[0];
+
+    /**
+     * Names the methods after the TRANSACTION_ constants of the aidl stub.
+     */
+    BinderCallStats(Class<?> stub) {
+        String[] names = new String[0];
+        for (Field field: stub.getDeclaredFields()) {
+            if (!field.getName().startsWith(TRANSACTION_PREFIX) ||
+                    !Modifier.isStatic(field.getModifiers()) || (field.getType() != int.class))
+                continue;
+            try {
+                field.setAccessible(true);
+                int index = field.getInt(null) - IBinder.FIRST_CALL_TRANSACTION;
+                if (index < 0)
+                    continue;
+                if (index >= names.length)
+                    names = Arrays.copyOf(names, index + 1);
+                names[index] = field.getName().substring(TRANSACTION_PREFIX.length());
+            } catch (IllegalAccessException e) {
+                Log.d(TAG, "transaction " + field.getName() + " is not accessible");
+            }
+        }
+        methodNames = names;
+    }
+
+    boolean isTracked(int code) {
+        int index = code - IBinder.FIRST_CALL_TRANSACTION;
+        return (index >= 0) && (index < methodNames.length) && (methodNames[index] != null);
+    }
+
+    void record(int uid, int code, long durationNs, long cpuDurationNs, boolean failed) {
+        uidOf(uid).methodOf(code - IBinder.FIRST_CALL_TRANSACTION)
+            .record(durationNs, cpuDurationNs, failed);
+    }
+
+    private UidCalls uidOf(int uid) {
+        for (UidCalls calls: uids) {
+            if (calls.uid == uid)
+                return calls;
+        }
+        synchronized(this) {
+            UidCalls[] current = uids;
+            for (UidCalls calls: current) {
+                if (calls.uid == uid)
+                    return calls;
+            }
+            UidCalls calls = new UidCalls(uid, methodNames.length);
+            UidCalls[] next = Arrays.copyOf(current, current.length + 1);
+            next[current.length] = calls;
+            uids = next;
+            return calls;
+        }
+    }
+
+    /**
+     * Records of RECORD_SIZE longs for every method called by uid, or by
+     * every uid when uid is -1.
+     */
+    long[] toArray(int uid) {
+        long[] records = new long[0];
+        int count = 0;
+        for (UidCalls uidCalls: uids) {
+            if ((uid != -1) && (uidCalls.uid != uid))
+                continue;
+            for (int i=0; i<methodNames.length; i++) {
+                MethodCalls calls = uidCalls.methods.get(i);
+                if (calls == null)
+                    continue;
+                if ((count + 1) * RECORD_SIZE > records.length)
+                    records = Arrays.copyOf(records, Math.max(records.length * 2, RECORD_SIZE * 8));
+
+                int offset = count * RECORD_SIZE;
+                records[offset] = uidCalls.uid;
+                records[offset + 1] = i + IBinder.FIRST_CALL_TRANSACTION;
+                records[offset + 2] = calls.calls.get();
+                records[offset + 3] = calls.failures.get();
+                records[offset + 4] = calls.totalNs.get();
+                records[offset + 5] = calls.cpuNs.get();
+                records[offset + 6] = calls.maxNs.get();
+                records[offset + 7] = calls.latency.getPercentileNs(0.5);
+                records[offset + 8] = calls.latency.getPercentileNs(0.99);
+                count++;
+            }
+        }
+        return Arrays.copyOf(records, count * RECORD_SIZE);
+    }
+
+    void dump(PrintWriter pw) {
+        for (UidCalls uidCalls: uids) {
+            pw.println("  uid " + uidCalls.uid + ":");
+            for (int i=0; i<methodNames.length; i++) {
+                MethodCalls calls = uidCalls.methods.get(i);
+                if (calls == null)
+                    continue;
+                long count = calls.calls.get();
+                if (count == 0)
+                    continue;
+                pw.println("    " + methodNames[i] + ": calls=" + count
+                        + " failures=" + calls.failures.get()
+                        + " avg=" + (calls.totalNs.get() / count / 1000) + "us"
+                        + " cpu=" + (calls.cpuNs.get() / count / 1000) + "us"
+                        + " p50<" + (calls.latency.getPercentileNs(0.5) / 1000) + "us"
+                        + " p99<" + (calls.latency.getPercentileNs(0.99) / 1000) + "us"
+                        + " max=" + (calls.maxNs.get() / 1000) + "us");
+            }
+        }
+    }
+}
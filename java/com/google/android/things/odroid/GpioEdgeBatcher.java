@@ -0,0 +1,119 @@
+/*
+ *    Copyright (c) 2019 Sangchul Go <luke.go@hardkernel.com>
+ *
+ *    OdroidThings is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as
+ *    published by the Free Software Foundation, either version 3 of the
+ *    License, or (at your option) any later version.
+ *
+ *    OdroidThings is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with OdroidThings.
+ *    If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.google.android.things.odroid;
+
+import android.os.Handler;
+
+import java.util.Arrays;
+
+/**
+ * Collects timestamped edges of a pin and hands them to the sink in batches,
+ * when maxBatchSize edges are pending or maxLatencyMs after the first pending
+ * edge, whichever comes first. Edges that arrive while the buffer is full are
+ * counted as dropped and reported with the next batch. add() runs on the
+ * edge thread and takes mLock for every edge; it is only shared with
+ * flush(), which copies the batch out and calls the sink outside of it.
+ * @hide
+ */
+class GpioEdgeBatcher {
+    static final int MAX_BATCH_SIZE = 4096;
+
+    interface Sink {
+        void onEdges(long[] timestampsNs, boolean[] levels, int droppedCount);
+    }
+
+    private final Object mLock = new Object();
+    private final Handler mHandler;
+    private final Sink mSink;
+    private final int maxBatchSize;
+    private final int maxLatencyMs;
+
+    private final long[] timestamps;
+    private final boolean[] levels;
+    private int count;
+    private int dropped;
+    private boolean flushPending;
+    private boolean flushNow;
+
+    private final Runnable mFlush = new Runnable() {
+        public void run() {
+            flush();
+        }
+    };
+
+    GpioEdgeBatcher(int maxBatchSize, int maxLatencyMs, Handler handler, Sink sink) {
+        this.maxBatchSize = maxBatchSize;
+        this.maxLatencyMs = maxLatencyMs;
+        mHandler = handler;
+        mSink = sink;
+
+        // a full batch is flushed right away, edges that come before the
+        // flush runs are dropped and counted.
+        timestamps = new long[maxBatchSize];
+        levels = new boolean[maxBatchSize];
+    }
+
+    void add(long timestampNs, boolean level) {
+        synchronized(mLock) {
+            if (count == timestamps.length) {
+                dropped++;
+                return;
+            }
+            timestamps[count] = timestampNs;
+            levels[count] = level;
+            count++;
+
+            if (count >= maxBatchSize) {
+                if (!flushNow) {
+                    mHandler.removeCallbacks(mFlush);
+                    mHandler.post(mFlush);
+                    flushPending = true;
+                    flushNow = true;
+                }
+            } else if (!flushPending) {
+                mHandler.postDelayed(mFlush, maxLatencyMs);
+                flushPending = true;
+            }
+        }
+    }
+
+    void flush() {
+        long[] batchTimestamps;
+        boolean[] batchLevels;
+        int batchDropped;
+
+        synchronized(mLock) {
+            flushPending = false;
+            flushNow = false;
+            if ((count == 0) && (dropped == 0))
+                return;
+
+            batchTimestamps = Arrays.copyOf(timestamps, count);
+            batchLevels = Arrays.copyOf(levels, count);
+            batchDropped = dropped;
+            count = 0;
+            dropped = 0;
+        }
+        mSink.onEdges(batchTimestamps, batchLevels, batchDropped);
+    }
+
+    void release() {
+        mHandler.removeCallbacks(mFlush);
+    }
+}
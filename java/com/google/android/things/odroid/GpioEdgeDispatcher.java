@@ -0,0 +1,206 @@
+/*
+ *    Copyright (c) 2019 Sangchul Go <luke.go@hardkernel.com>
+ *
+ *    OdroidThings is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as
+ *    published by the Free Software Foundation, either version 3 of the
+ *    License, or (at your option) any later version.
+ *
+ *    OdroidThings is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with OdroidThings.
+ *    If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.google.android.things.odroid;
+
+import com.google.android.things.pio.Gpio;
+
+import android.os.Process;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Moves edge delivery off the native edge thread. Each pin that asks for it
+ * gets a bounded queue, and a small worker pool delivers the queued edges to
+ * the pin's listeners. A queue is scheduled on the pool at most once at a time
+ * and gives the worker back after each batch, so a slow pin cannot hold a
+ * worker while other pins wait. Delivery never falls back to the edge
+ * thread: when the pool is saturated, the queue keeps its edges, subject to
+ * its overflow policy, and retries from the edge handler until the pool
+ * takes it.
+ * @hide
+ */
+class GpioEdgeDispatcher {
+    private static final String TAG = "GpioEdgeDispatcher";
+    static final int MAX_QUEUE_CAPACITY = 1 << 16;
+
+    private static final int WORKER_COUNT = 2;
+    // a queue is in the pool at most once, so this bounds the number of pins.
+    private static final int MAX_SCHEDULED_QUEUES = 256;
+
+    private static final ThreadPoolExecutor sWorkers = new ThreadPoolExecutor(
+            WORKER_COUNT, WORKER_COUNT, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<Runnable>(MAX_SCHEDULED_QUEUES),
+            new ThreadFactory() {
+                private int count = 0;
+                @Override
+                public synchronized Thread newThread(final Runnable r) {
+                    return new Thread(new Runnable() {
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_FOREGROUND);
+                            r.run();
+                        }
+                    }, TAG + "-" + count++);
+                }
+            });
+
+    static class Queue implements Runnable {
+        private static final int DELIVERY_BATCH = 64;
+        private static final long RETRY_DELAY_MS = 1;
+
+        private final OdroidGpio gpio;
+        private final int overflowPolicy;
+        private final long[] timestamps;
+        private final boolean[] levels;
+        private int head;
+        private int count;
+        private int dropped;
+        private boolean scheduled;
+        private volatile boolean released;
+
+        // only touched by the one worker that runs this queue.
+        private final long[] batchTimestamps = new long[DELIVERY_BATCH];
+        private final boolean[] batchLevels = new boolean[DELIVERY_BATCH];
+
+        private final Runnable mRetry = new Runnable() {
+            @Override
+            public void run() {
+                schedule();
+            }
+        };
+
+        Queue(OdroidGpio gpio, int capacity, int overflowPolicy) {
+            if ((capacity <= 0) || (capacity > MAX_QUEUE_CAPACITY))
+                throw new IllegalArgumentException("queue capacity should be 1 to " + MAX_QUEUE_CAPACITY);
+            if ((overflowPolicy < Gpio.OVERFLOW_DROP_OLDEST) || (overflowPolicy > Gpio.OVERFLOW_COALESCE))
+                throw new IllegalArgumentException("overflow policy should be DROP_OLDEST, DROP_NEWEST or COALESCE");
+
+            this.gpio = gpio;
+            this.overflowPolicy = overflowPolicy;
+            timestamps = new long[capacity];
+            levels = new boolean[capacity];
+        }
+
+        /**
+         * Called from the native edge thread, never blocks on delivery.
+         */
+        void offer(long timestampNs, boolean level) {
+            boolean schedule;
+            synchronized(this) {
+                int capacity = timestamps.length;
+                if (count == capacity) {
+                    dropped++;
+                    switch (overflowPolicy) {
+                        case Gpio.OVERFLOW_DROP_NEWEST:
+                            return;
+                        case Gpio.OVERFLOW_COALESCE:
+                            int last = (head + count - 1) % capacity;
+                            timestamps[last] = timestampNs;
+                            levels[last] = level;
+                            return;
+                        default:
+                            head = (head + 1) % capacity;
+                            count--;
+                            break;
+                    }
+                }
+
+                int tail = (head + count) % capacity;
+                timestamps[tail] = timestampNs;
+                levels[tail] = level;
+                count++;
+
+                schedule = !scheduled;
+                scheduled = true;
+            }
+            if (schedule)
+                schedule();
+        }
+
+        /**
+         * Hands the scheduled queue to the pool. A saturated pool is retried
+         * from the edge handler, the queued edges stay where they are.
+         */
+        private void schedule() {
+            if (released) {
+                synchronized(this) {
+                    scheduled = false;
+                }
+                return;
+            }
+            try {
+                sWorkers.execute(this);
+            } catch (RejectedExecutionException e) {
+                OdroidGpio.getEdgeHandler().postDelayed(mRetry, RETRY_DELAY_MS);
+            }
+        }
+
+        @Override
+        public void run() {
+            if (deliverBatch())
+                schedule();
+        }
+
+        /**
+         * @return true if edges are left to deliver.
+         */
+        private boolean deliverBatch() {
+            int batch;
+            int batchDropped;
+            synchronized(this) {
+                if (released) {
+                    scheduled = false;
+                    return false;
+                }
+
+                int capacity = timestamps.length;
+                batch = Math.min(count, DELIVERY_BATCH);
+                for (int i=0; i<batch; i++) {
+                    batchTimestamps[i] = timestamps[(head + i) % capacity];
+                    batchLevels[i] = levels[(head + i) % capacity];
+                }
+                head = (head + batch) % capacity;
+                count -= batch;
+                batchDropped = dropped;
+                dropped = 0;
+            }
+
+            for (int i=0; i<batch; i++)
+                gpio.dispatchEdge(batchTimestamps[i], batchLevels[i]);
+            if (batchDropped > 0)
+                gpio.reportDroppedEdges(batchDropped);
+
+            synchronized(this) {
+                if ((count == 0) || released) {
+                    scheduled = false;
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void release() {
+            released = true;
+            OdroidGpio.getEdgeHandler().removeCallbacks(mRetry);
+        }
+    }
+}
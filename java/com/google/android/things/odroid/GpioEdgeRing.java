@@ -0,0 +1,117 @@
+/*
+ *    Copyright (c) 2019 Sangchul Go <luke.go@hardkernel.com>
+ *
+ *    OdroidThings is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as
+ *    published by the Free Software Foundation, either version 3 of the
+ *    License, or (at your option) any later version.
+ *
+ *    OdroidThings is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with OdroidThings.
+ *    If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.google.android.things.odroid;
+
+import com.google.android.things.pio.IGpioCallback;
+import com.google.android.things.pio.util.EdgeRingBuffer;
+
+import android.os.RemoteException;
+import android.os.SharedMemory;
+import android.system.ErrnoException;
+
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Service side of a shared memory edge ring. Edges are written straight
+ * into the region from the native edge thread, and the client is woken up
+ * only when the ring turns non-empty.
+ * @hide
+ */
+class GpioEdgeRing {
+    private static final String TAG = "GpioEdgeRing";
+
+    final IGpioCallback callback;
+    private final SharedMemory mMemory;
+    private ByteBuffer mMapping;
+    private final EdgeRingBuffer mRing;
+
+    // writers in flight, release() waits for them before unmapping.
+    private final AtomicInteger mWriters = new AtomicInteger();
+    private volatile boolean released;
+
+    GpioEdgeRing(int pin, int capacity, IGpioCallback callback) throws ErrnoException {
+        if ((capacity <= 0) || (capacity > EdgeRingBuffer.MAX_CAPACITY))
+            throw new IllegalArgumentException("ring capacity should be 1 to " + EdgeRingBuffer.MAX_CAPACITY);
+
+        this.callback = callback;
+        mMemory = SharedMemory.create("gpio-edges-" + pin, EdgeRingBuffer.sizeOf(capacity));
+        try {
+            mMapping = mMemory.mapReadWrite();
+        } catch (ErrnoException e) {
+            mMemory.close();
+            throw e;
+        }
+        mRing = new EdgeRingBuffer(mMapping, capacity);
+    }
+
+    SharedMemory getMemory() {
+        return mMemory;
+    }
+
+    void write(long timestampNs, boolean level) {
+        boolean wakeUp;
+        mWriters.incrementAndGet();
+        try {
+            if (released)
+                return;
+            wakeUp = mRing.write(timestampNs, level);
+        } finally {
+            mWriters.decrementAndGet();
+        }
+
+        if (wakeUp) {
+            try {
+                callback.onGpioEdgesAvailable();
+            } catch (RemoteException e) {
+                Log.d(TAG, "callback is not exit");
+            }
+        }
+    }
+
+    /**
+     * Edges the ring dropped because the client did not keep up.
+     */
+    int getDroppedCount() {
+        mWriters.incrementAndGet();
+        try {
+            if (released)
+                return 0;
+            return mRing.getDroppedCount();
+        } finally {
+            mWriters.decrementAndGet();
+        }
+    }
+
+    void release() {
+        synchronized(this) {
+            if (released)
+                return;
+            released = true;
+        }
+        while (mWriters.get() != 0)
+            Thread.yield();
+
+        SharedMemory.unmap(mMapping);
+        mMapping = null;
+        mMemory.close();
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ *    Copyright (c) 2019 Sangchul Go <luke.go@hardkernel.com>
+ *
+ *    OdroidThings is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as
+ *    published by the Free Software Foundation, either version 3 of the
+ *    License, or (at your option) any later version.
+ *
+ *    OdroidThings is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with OdroidThings.
+ *    If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.google.android.things.odroid;
+
+import com.google.android.things.pio.GpioStats;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Edge counters and latency histograms of a gpio pin. Everything is updated
+ * lock free from the edge path, a snapshot is not atomic across counters.
+ * @hide
+ */
+class GpioEdgeStats {
+    private final AtomicLong seen = new AtomicLong();
+    private final AtomicLong suppressed = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final LatencyHistogram dispatchLatency = new LatencyHistogram();
+    private final LatencyHistogram deliveryTime = new LatencyHistogram();
+
+    void countSeen() {
+        seen.incrementAndGet();
+    }
+
+    void countSuppressed() {
+        suppressed.incrementAndGet();
+    }
+
+    void countDelivered(int count) {
+        delivered.addAndGet(count);
+    }
+
+    void countDropped(int count) {
+        dropped.addAndGet(count);
+    }
+
+    void countFailed() {
+        failed.incrementAndGet();
+    }
+
+    void recordDispatchLatency(long latencyNs) {
+        dispatchLatency.record(latencyNs);
+    }
+
+    void recordDeliveryTime(long durationNs) {
+        deliveryTime.record(durationNs);
+    }
+
+    /**
+     * Snapshot in the layout of {@link GpioStats}. Ring drops live in the
+     * shared rings, so the caller passes them in together with the listener count.
+     */
+    long[] toArray(int listenerCount, long ringDropped) {
+        long[] stats = new long[GpioStats.SIZE];
+        int i = 0;
+        stats[i++] = listenerCount;
+        stats[i++] = seen.get();
+        stats[i++] = suppressed.get();
+        stats[i++] = delivered.get();
+        stats[i++] = dropped.get() + ringDropped;
+        stats[i++] = failed.get();
+        dispatchLatency.foldLog2Us(stats, i);
+        deliveryTime.foldLog2Us(stats, i + GpioStats.HISTOGRAM_BUCKETS);
+        return stats;
+    }
+
+    void reset() {
+        seen.set(0);
+        suppressed.set(0);
+        delivered.set(0);
+        dropped.set(0);
+        failed.set(0);
+        dispatchLatency.reset();
+        deliveryTime.reset();
+    }
+
+    static void dump(PrintWriter pw, String name, GpioStats stats) {
+        long[] latency = stats.getDispatchLatencyHistogram();
+        long[] delivery = stats.getDeliveryTimeHistogram();
+        pw.println("  " + name + ": listeners=" + stats.getListenerCount()
+                + " seen=" + stats.getEdgesSeen()
+                + " suppressed=" + stats.getEdgesSuppressed()
+                + " delivered=" + stats.getEdgesDelivered()
+                + " dropped=" + stats.getEdgesDropped()
+                + " failed=" + stats.getDeliveryFailures());
+        pw.println("    dispatch latency us: p50<" + GpioStats.getPercentileUs(latency, 0.5)
+                + " p99<" + GpioStats.getPercentileUs(latency, 0.99)
+                + " max<" + GpioStats.getPercentileUs(latency, 1.0));
+        pw.println("    delivery time us: p50<" + GpioStats.getPercentileUs(delivery, 0.5)
+                + " p99<" + GpioStats.getPercentileUs(delivery, 0.99)
+                + " max<" + GpioStats.getPercentileUs(delivery, 1.0));
+        dumpHistogram(pw, "    dispatch latency", latency);
+        dumpHistogram(pw, "    delivery time", delivery);
+    }
+
+    private static void dumpHistogram(PrintWriter pw, String label, long[] histogram) {
+        StringBuilder line = new StringBuilder(label).append(" buckets:");
+        for (int i=0; i<histogram.length; i++) {
+            if (histogram[i] != 0)
+                line.append(" <").append(GpioStats.getBucketLimitUs(i)).append("us=").append(histogram[i]);
+        }
+        pw.println(line);
+    }
+}
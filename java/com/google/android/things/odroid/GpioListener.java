@@ -0,0 +1,104 @@
+/*
+ *    Copyright (c) 2019 Sangchul Go <luke.go@hardkernel.com>
+ *
+ *    OdroidThings is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as
+ *    published by the Free Software Foundation, either version 3 of the
+ *    License, or (at your option) any later version.
+ *
+ *    OdroidThings is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with OdroidThings.
+ *    If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.google.android.things.odroid;
+
+import com.google.android.things.pio.Gpio;
+import com.google.android.things.pio.IGpioCallback;
+
+import android.os.IBinder;
+
+import java.util.NoSuchElementException;
+
+/**
+ * One registered edge listener of a gpio pin. It unregisters itself from
+ * the pin when the listening process dies.
+ * @hide
+ */
+class GpioListener implements IBinder.DeathRecipient {
+    private final OdroidGpio gpio;
+    final IGpioCallback callback;
+    final int edgeType;
+    final GpioEdgeRing ring;
+
+    GpioListener(OdroidGpio gpio, IGpioCallback callback, int edgeType, GpioEdgeRing ring) {
+        if ((edgeType < Gpio.EDGE_RISING) || (edgeType > Gpio.EDGE_BOTH))
+            throw new IllegalArgumentException("edge type should be RISING, FALLING or BOTH");
+        this.gpio = gpio;
+        this.callback = callback;
+        this.edgeType = edgeType;
+        this.ring = ring;
+    }
+
+    boolean isFiltered() {
+        return edgeType != Gpio.EDGE_BOTH;
+    }
+
+    boolean accepts(boolean level) {
+        switch (edgeType) {
+            case Gpio.EDGE_RISING:
+                return level;
+            case Gpio.EDGE_FALLING:
+                return !level;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Number of edges in levels that this listener wants.
+     */
+    int countAccepted(boolean[] levels) {
+        if (!isFiltered())
+            return levels.length;
+        int count = 0;
+        for (boolean level: levels) {
+            if (accepts(level))
+                count++;
+        }
+        return count;
+    }
+
+    /**
+     * Copies the accepted edges of a batch to the front of the given arrays.
+     */
+    void filter(long[] timestampsNs, boolean[] levels, long[] filteredTimestamps, boolean[] filteredLevels) {
+        int count = 0;
+        for (int i=0; i<levels.length; i++) {
+            if (accepts(levels[i])) {
+                filteredTimestamps[count] = timestampsNs[i];
+                filteredLevels[count] = levels[i];
+                count++;
+            }
+        }
+    }
+
+    @Override
+    public void binderDied() {
+        gpio.unregisterCallback(callback);
+    }
+
+    void release() {
+        try {
+            callback.asBinder().unlinkToDeath(this, 0);
+        } catch (NoSuchElementException e) {
+        }
+        if (ring != null)
+            ring.release();
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ *    Copyright (c) 2019 Sangchul Go <luke.go@hardkernel.com>
+ *
+ *    OdroidThings is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as
+ *    published by the Free Software Foundation, either version 3 of the
+ *    License, or (at your option) any later version.
+ *
+ *    OdroidThings is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with OdroidThings.
+ *    If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.google.android.things.odroid;
+
+import android.os.Process;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Plays a timed output sequence on a gpio pin from a high priority thread.
+ * Segment i holds the level initialLevel ^ (i is odd) for durationsNs[i],
+ * the pin keeps the level of the last segment when the sequence ends.
+ * Deadlines are absolute from the start, so timing errors do not add up.
+ * @hide
+ */
+class GpioWaveform implements Runnable {
+    private static final String TAG = "GpioWaveform";
+    static final int MAX_SEGMENTS = 1 << 16;
+
+    // below this the thread spins instead of parking, parkNanos is too coarse.
+    private static final long SPIN_NS = 100000;
+
+    private final OdroidGpio gpio;
+    private final long[] durationsNs;
+    private final boolean initialLevel;
+    private volatile boolean cancelled;
+    private final Thread thread;
+
+    GpioWaveform(OdroidGpio gpio, long[] durationsNs, boolean initialLevel) {
+        if ((durationsNs.length == 0) || (durationsNs.length > MAX_SEGMENTS))
+            throw new IllegalArgumentException("waveform should have 1 to " + MAX_SEGMENTS + " segments");
+        for (long duration: durationsNs) {
+            if (duration <= 0)
+                throw new IllegalArgumentException("segment duration should be positive");
+        }
+
+        this.gpio = gpio;
+        this.durationsNs = durationsNs;
+        this.initialLevel = initialLevel;
+        thread = new Thread(this, TAG);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    boolean isPlaying() {
+        return thread.isAlive();
+    }
+
+    @Override
+    public void run() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+
+        boolean level = initialLevel;
+        long deadline = System.nanoTime();
+        for (int i=0; (i < durationsNs.length) && !cancelled; i++) {
+            gpio.setValue(level);
+            level = !level;
+
+            deadline += durationsNs[i];
+            long waitNs = deadline - System.nanoTime();
+            if (waitNs > SPIN_NS)
+                LockSupport.parkNanos(waitNs - SPIN_NS);
+            while (!cancelled && (deadline - System.nanoTime() > 0)) {
+            }
+        }
+    }
+
+    /**
+     * Asks the waveform to stop, without waiting for it. A waveform that is
+     * cancelled before it started never touches the pin.
+     */
+    void cancel() {
+        cancelled = true;
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * Waits until the waveform thread is done with the pin.
+     */
+    void join() {
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
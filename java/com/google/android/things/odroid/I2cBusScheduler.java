@@ -0,0 +1,197 @@
+/*
+ *    Copyright (c) 2019 Sangchul Go <luke.go@hardkernel.com>
+ *
+ *    OdroidThings is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as
+ *    published by the Free Software Foundation, either version 3 of the
+ *    License, or (at your option) any later version.
+ *
+ *    OdroidThings is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with OdroidThings.
+ *    If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.google.android.things.odroid;
+
+import com.google.android.things.pio.I2cDevice;
+
+import android.os.SystemClock;
+import android.util.SparseArray;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Serializes the transfers of one i2c bus and decides who goes next when
+ * several are waiting. Higher priority classes always go first. Within a
+ * class, clients get a fair share of bus time: each client accumulates the
+ * bus time it used, the waiting client that used the least goes next, and a
+ * client that was idle starts from the current virtual time instead of
+ * spending saved up credit (start-time fair queuing).
+ * A client is kept while the uid has a device open on the bus, so an
+ * uncontended transfer does not allocate.
+ * @hide
+ */
+class I2cBusScheduler {
+    private static final Map<String, I2cBusScheduler> sBuses = new ConcurrentHashMap<>();
+
+    private static class Client {
+        final int uid;
+        long virtualTimeNs;
+        // open devices, and transfers waiting for or holding the bus.
+        int handles;
+        int active;
+
+        Client(int uid) {
+            this.uid = uid;
+        }
+    }
+
+    private static class Waiter {
+        final Client client;
+        final int priority;
+        final long seq;
+        boolean granted;
+
+        Waiter(Client client, int priority, long seq) {
+            this.client = client;
+            this.priority = priority;
+            this.seq = seq;
+        }
+    }
+
+    private final Object mLock = new Object();
+    private final SparseArray<Client> clients = new SparseArray<>();
+    private final ArrayList<Waiter> waiters = new ArrayList<>();
+    private boolean busy;
+    private Client owner;
+    private long grantedNs;
+    private long virtualClockNs;
+    private long seq;
+
+    static I2cBusScheduler of(String bus) {
+        return sBuses.computeIfAbsent(bus, (name) -> new I2cBusScheduler());
+    }
+
+    static void checkPriority(int priority) {
+        if ((priority < I2cDevice.PRIORITY_BACKGROUND) || (priority > I2cDevice.PRIORITY_REALTIME))
+            throw new IllegalArgumentException("priority should be BACKGROUND, NORMAL or REALTIME");
+    }
+
+    /**
+     * Called for every device opened on the bus, and followed by a detach
+     * once it is closed.
+     */
+    void attach(int uid) {
+        synchronized(mLock) {
+            clientOf(uid).handles++;
+        }
+    }
+
+    void detach(int uid) {
+        synchronized(mLock) {
+            Client client = clients.get(uid);
+            if (client == null)
+                return;
+            client.handles--;
+            removeIfIdle(client);
+        }
+    }
+
+    /**
+     * Called with mLock held.
+     */
+    private Client clientOf(int uid) {
+        Client client = clients.get(uid);
+        if (client == null) {
+            client = new Client(uid);
+            client.virtualTimeNs = virtualClockNs;
+            clients.put(uid, client);
+        }
+        return client;
+    }
+
+    /**
+     * Called with mLock held.
+     */
+    private void removeIfIdle(Client client) {
+        if ((client.handles <= 0) && (client.active == 0))
+            clients.remove(client.uid);
+    }
+
+    /**
+     * Blocks until the bus is granted to the caller, every acquire must be
+     * followed by a release.
+     */
+    void acquire(int uid, int priority) {
+        synchronized(mLock) {
+            Client client = clientOf(uid);
+            client.active++;
+
+            if (!busy) {
+                grant(client);
+                return;
+            }
+
+            client.virtualTimeNs = Math.max(client.virtualTimeNs, virtualClockNs);
+            Waiter waiter = new Waiter(client, priority, seq++);
+            waiters.add(waiter);
+            boolean interrupted = false;
+            while (!waiter.granted) {
+                try {
+                    mLock.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    void release() {
+        synchronized(mLock) {
+            owner.virtualTimeNs += SystemClock.elapsedRealtimeNanos() - grantedNs;
+            owner.active--;
+            removeIfIdle(owner);
+            busy = false;
+            owner = null;
+            if (waiters.isEmpty())
+                return;
+
+            int next = 0;
+            for (int i=1; i<waiters.size(); i++) {
+                if (goesBefore(waiters.get(i), waiters.get(next)))
+                    next = i;
+            }
+            Waiter waiter = waiters.remove(next);
+            waiter.granted = true;
+            grant(waiter.client);
+            mLock.notifyAll();
+        }
+    }
+
+    private static boolean goesBefore(Waiter a, Waiter b) {
+        if (a.priority != b.priority)
+            return a.priority > b.priority;
+        if (a.client.virtualTimeNs != b.client.virtualTimeNs)
+            return a.client.virtualTimeNs < b.client.virtualTimeNs;
+        return a.seq < b.seq;
+    }
+
+    /**
+     * Called with mLock held.
+     */
+    private void grant(Client client) {
+        busy = true;
+        owner = client;
+        virtualClockNs = Math.max(virtualClockNs, client.virtualTimeNs);
+        grantedNs = SystemClock.elapsedRealtimeNanos();
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ *    Copyright (c) 2019 Sangchul Go <luke.go@hardkernel.com>
+ *
+ *    OdroidThings is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as
+ *    published by the Free Software Foundation, either version 3 of the
+ *    License, or (at your option) any later version.
+ *
+ *    OdroidThings is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with OdroidThings.
+ *    If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.google.android.things.odroid;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Native i2c handles shared by every open device with the same bus and
+ * address. A handle is reference counted and stays open for a while after
+ * its last user is gone, so reopening a device, e.g. on reconnect, skips the
+ * native open and slave address setup. Native indexes of closed handles are
+ * reused.
+ * @hide
+ */
+class I2cHandlePool {
+    private static final int LINGER_MS = 5000;
+
+    class Handle implements Runnable {
+        final int busIdx;
+        final int address;
+        final int nativeIdx;
+        private int refCount;
+
+        Handle(int busIdx, int address, int nativeIdx) {
+            this.busIdx = busIdx;
+            this.address = address;
+            this.nativeIdx = nativeIdx;
+        }
+
+        // linger expired.
+        @Override
+        public void run() {
+            closeIfUnused(this);
+        }
+    }
+
+    private final Map<Long, Handle> handles = new HashMap<>();
+    private final ArrayDeque<Integer> freeIdx = new ArrayDeque<>();
+    private int nextIdx = 0;
+    private Handler mHandler;
+
+    private static long keyOf(int busIdx, int address) {
+        return ((long)busIdx << 32) | (address & 0xFFFFFFFFL);
+    }
+
+    synchronized Handle acquire(int busIdx, int address) {
+        long key = keyOf(busIdx, address);
+        Handle handle = handles.get(key);
+        if (handle == null) {
+            Integer idx = freeIdx.poll();
+            handle = new Handle(busIdx, address, (idx != null) ? idx : nextIdx++);
+            OdroidI2c.openHandle(busIdx, address, handle.nativeIdx);
+            handles.put(key, handle);
+        } else if (handle.refCount == 0) {
+            getHandler().removeCallbacks(handle);
+        }
+        handle.refCount++;
+        return handle;
+    }
+
+    synchronized void release(Handle handle) {
+        if (--handle.refCount == 0)
+            getHandler().postDelayed(handle, LINGER_MS);
+    }
+
+    private synchronized void closeIfUnused(Handle handle) {
+        if (handle.refCount != 0)
+            return;
+        handles.remove(keyOf(handle.busIdx, handle.address));
+        OdroidI2c.closeHandle(handle.nativeIdx);
+        freeIdx.add(handle.nativeIdx);
+    }
+
+    synchronized int size() {
+        return handles.size();
+    }
+
+    private Handler getHandler() {
+        if (mHandler == null) {
+            HandlerThread thread = new HandlerThread("OdroidI2cHandles");
+            thread.start();
+            mHandler = new Handler(thread.getLooper());
+        }
+        return mHandler;
+    }
+}
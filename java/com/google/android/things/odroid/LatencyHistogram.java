@@ -0,0 +1,108 @@
+/*
+ *    Copyright (c) 2019 Sangchul Go <luke.go@hardkernel.com>
+ *
+ *    OdroidThings is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as
+ *    published by the Free Software Foundation, either version 3 of the
+ *    License, or (at your option) any later version.
+ *
+ *    OdroidThings is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with OdroidThings.
+ *    If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.google.android.things.odroid;
+
+import com.google.android.things.pio.GpioStats;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free latency histogram with log-linear buckets in the spirit of
+ * HdrHistogram: every power of two of nanoseconds is split into four
+ * sub-buckets, so a reported value is within 25% of the recorded one.
+ * Used for binder call latencies and the gpio edge latencies alike.
+ * @hide
+ */
+class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // up to 2^40ns, about 18 minutes, longer calls land in the last bucket.
+    private static final int MAX_EXPONENT = 40;
+    static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    static int bucketOf(long valueNs) {
+        if (valueNs < SUB_BUCKETS)
+            return (int)Math.max(valueNs, 0);
+        int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(valueNs);
+        int subBucket = (int)(valueNs >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return Math.min((exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket, BUCKETS - 1);
+    }
+
+    /**
+     * Smallest value that falls into the given bucket.
+     */
+    static long lowerBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS)
+            return bucket;
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = bucket % SUB_BUCKETS;
+        return (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+    }
+
+    void record(long valueNs) {
+        counts.incrementAndGet(bucketOf(valueNs));
+    }
+
+    /**
+     * Upper bound of the bucket below which the given fraction of the
+     * recorded values fall, or 0 when nothing was recorded.
+     */
+    long getPercentileNs(double fraction) {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i=0; i<BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0)
+            return 0;
+
+        long target = Math.max((long)Math.ceil(total * fraction), 1);
+        long seen = 0;
+        for (int i=0; i<BUCKETS - 1; i++) {
+            seen += snapshot[i];
+            if (seen >= target)
+                return lowerBoundOf(i + 1);
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Adds the counts to out[offset..] in the log2 microsecond buckets of
+     * {@link GpioStats}. A bucket is folded by its lower bound, so a value just
+     * above a power of two of microseconds may be reported one bucket low.
+     */
+    void foldLog2Us(long[] out, int offset) {
+        for (int i=0; i<BUCKETS; i++) {
+            long count = counts.get(i);
+            if (count == 0)
+                continue;
+            long us = lowerBoundOf(i) / 1000;
+            int bucket = Math.min(Long.SIZE - Long.numberOfLeadingZeros(us), GpioStats.HISTOGRAM_BUCKETS - 1);
+            out[offset + bucket] += count;
+        }
+    }
+
+    void reset() {
+        for (int i=0; i<BUCKETS; i++)
+            counts.set(i, 0);
+    }
+}
@@ -24,20 +24,52 @@ import com.google.android.things.pio.Gpio;
 import com.google.android.things.pio.IGpioCallback;
 import com.google.android.things.pio.CallbackWrapper;
 
-import android.os.RemoteCallbackList;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
 import android.os.RemoteException;
+import android.os.SharedMemory;
+import android.os.SystemClock;
+import android.system.ErrnoException;
 
 import android.util.Log;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
 /**
  * @hide
  */
 public class OdroidGpio implements Pin {
     private static final String TAG = "OdroidGpio";
     private static final GpioNative mGpioNative = new GpioNative();
-    private RemoteCallbackList<IGpioCallback> remoteCallback;
+    private static final GpioListener[] NO_LISTENERS = new GpioListener[0];
+
+    // copy-on-write, replaced under mLock and read without any lock by the edge path.
+    private volatile GpioListener[] listeners = NO_LISTENERS;
+    private volatile boolean closed;
+    private boolean callbackArmed;
+    private volatile boolean needsEdgeLevel;
     private GpioState gpioState;
+    private volatile GpioEdgeBatcher edgeBatcher;
+    private volatile GpioEdgeDispatcher.Queue edgeQueue;
+    private GpioWaveform waveform;
+
+    private volatile int debounceMs;
+    private volatile boolean debouncedLevel;
+    // hands the pending edge over between the edge thread and the timer.
+    private final Object mDebounceLock = new Object();
+    private long lastEdgeNs;
+    private boolean debouncePending;
+
+    private volatile boolean coalesce;
+    private volatile long coalescedEdgeNs;
+    private final AtomicBoolean coalescePending = new AtomicBoolean();
     private final Object mLock = new Object();
 
+    private final GpioEdgeStats stats = new GpioEdgeStats();
+
+    private static Handler sEdgeHandler;
+
     class GpioState{
         GpioState(int pin) { this.pin = pin;}
         public int pin;
@@ -56,11 +88,49 @@ public class OdroidGpio implements Pin {
         return Mode.GPIO;
     }
 
+    /**
+     * Handler of the service thread that runs deferred edge work,
+     * e.g. flushing edge batches.
+     */
+    static Handler getEdgeHandler() {
+        synchronized(OdroidGpio.class) {
+            if (sEdgeHandler == null) {
+                HandlerThread thread = new HandlerThread("OdroidGpioEdge",
+                        Process.THREAD_PRIORITY_FOREGROUND);
+                thread.start();
+                sEdgeHandler = new Handler(thread.getLooper());
+            }
+            return sEdgeHandler;
+        }
+    }
+
     @Override
     public void close() {
-        if (remoteCallback != null) {
-            mGpioNative.unregisterCallback(gpioState.pin);
+        closed = true;
+        cancelWaveform();
+        setDispatchQueue(0, Gpio.OVERFLOW_DROP_OLDEST);
+        GpioEdgeBatcher batcher = edgeBatcher;
+        if (batcher != null) {
+            batcher.release();
+            edgeBatcher = null;
+        }
+        synchronized(mDebounceLock) {
+            getEdgeHandler().removeCallbacks(mDebounceExpired);
+            debouncePending = false;
         }
+        getEdgeHandler().removeCallbacks(mCoalescedEdge);
+        synchronized(mLock) {
+            for (GpioListener listener: listeners)
+                releaseListener(listener);
+            setListeners(NO_LISTENERS);
+        }
+    }
+
+    /**
+     * True once the pin is closed, its listeners are dropped then.
+     */
+    boolean isClosed() {
+        return closed;
     }
 
     public void setDirection(int direction) {
@@ -72,6 +142,42 @@ public class OdroidGpio implements Pin {
         mGpioNative.setValue(gpioState.pin, value);
     }
 
+    /**
+     * Starts playing the waveform, replacing the one that is playing now.
+     */
+    public void playWaveform(long[] durationsNs, boolean initialLevel) {
+        GpioWaveform next = new GpioWaveform(this, durationsNs.clone(), initialLevel);
+        GpioWaveform previous;
+        synchronized(mLock) {
+            previous = waveform;
+            waveform = next;
+            if (previous != null)
+                previous.cancel();
+        }
+        // joined outside of mLock, the old waveform may still be spinning.
+        if (previous != null)
+            previous.join();
+        next.start();
+    }
+
+    public void cancelWaveform() {
+        GpioWaveform previous;
+        synchronized(mLock) {
+            previous = waveform;
+            waveform = null;
+            if (previous != null)
+                previous.cancel();
+        }
+        if (previous != null)
+            previous.join();
+    }
+
+    public boolean isWaveformPlaying() {
+        synchronized(mLock) {
+            return (waveform != null) && waveform.isPlaying();
+        }
+    }
+
     public boolean getValue() {
         boolean value = mGpioNative.getValue(gpioState.pin);
         if (gpioState.activeType == Gpio.ACTIVE_LOW)
@@ -79,6 +185,26 @@ public class OdroidGpio implements Pin {
         return value;
     }
 
+    public boolean isActiveLow() {
+        return gpioState.activeType == Gpio.ACTIVE_LOW;
+    }
+
+    /**
+     * Writes the values selected by mask to the given pins with a single
+     * native call. Bit n of mask, bits and activeLowMask belongs to pins[n].
+     */
+    public static void setValues(int[] pins, long mask, long bits, long activeLowMask) {
+        mGpioNative.setValues(pins, mask, bits, activeLowMask);
+    }
+
+    /**
+     * Reads the value of the given pins with a single native call.
+     * Bit n of the result and of activeLowMask belongs to pins[n].
+     */
+    public static long getValues(int[] pins, long activeLowMask) {
+        return mGpioNative.getValues(pins, activeLowMask);
+    }
+
     public void setActiveType(int activeType) {
         gpioState.activeType = activeType;
         mGpioNative.setActiveType(gpioState.pin, activeType);
@@ -89,41 +215,364 @@ public class OdroidGpio implements Pin {
         mGpioNative.setEdgeTriggerType(gpioState.pin, edgeTriggerType);
     }
 
-    public void registerCallback(IGpioCallback callback) {
+    public void setEdgeBatching(int maxBatchSize, int maxLatencyMs) {
+        if ((maxBatchSize < 0) || (maxBatchSize > GpioEdgeBatcher.MAX_BATCH_SIZE))
+            throw new IllegalArgumentException("batch size should be 0 to " + GpioEdgeBatcher.MAX_BATCH_SIZE);
+        if (maxLatencyMs < 0)
+            throw new IllegalArgumentException("latency should not be negative");
+
+        GpioEdgeBatcher batcher = null;
+        if (maxBatchSize > 0) {
+            batcher = new GpioEdgeBatcher(maxBatchSize, maxLatencyMs, getEdgeHandler(),
+                    new GpioEdgeBatcher.Sink() {
+                        @Override
+                        public void onEdges(long[] timestampsNs, boolean[] levels, int droppedCount) {
+                            broadcastEdges(timestampsNs, levels, droppedCount);
+                        }
+                    });
+        }
+
+        GpioEdgeBatcher old = edgeBatcher;
+        edgeBatcher = batcher;
+        if (old != null) {
+            old.release();
+            old.flush();
+        }
         synchronized(mLock) {
-            remoteCallback = new RemoteCallbackList<IGpioCallback>();
-            remoteCallback.register(callback);
-            mGpioNative.registerCallback(gpioState.pin);
+            setListeners(listeners);
+        }
+    }
+
+    /**
+     * Level of the pin right after an edge. Single edge triggers imply the level,
+     * so the pin is read only for EDGE_BOTH.
+     */
+    private boolean getEdgeLevel() {
+        switch (gpioState.triggerType) {
+            case Gpio.EDGE_RISING:
+                return true;
+            case Gpio.EDGE_FALLING:
+                return false;
+            default:
+                return getValue();
+        }
+    }
+
+    public void registerCallback(IGpioCallback callback, int edgeType) {
+        addListener(new GpioListener(this, callback, edgeType, null));
+    }
+
+    public SharedMemory registerRingCallback(IGpioCallback callback, int capacity) {
+        GpioEdgeRing ring;
+        try {
+            ring = new GpioEdgeRing(gpioState.pin, capacity, callback);
+        } catch (ErrnoException e) {
+            throw new IllegalStateException("edge ring is not created");
+        }
+        addListener(new GpioListener(this, callback, Gpio.EDGE_BOTH, ring));
+        return ring.getMemory();
+    }
+
+    private void addListener(GpioListener listener) {
+        try {
+            listener.callback.asBinder().linkToDeath(listener, 0);
+        } catch (RemoteException e) {
+            listener.release();
+            return;
+        }
+
+        synchronized(mLock) {
+            GpioListener[] current = withoutListener(listener.callback);
+            GpioListener[] next = Arrays.copyOf(current, current.length + 1);
+            next[current.length] = listener;
+            setListeners(next);
         }
     }
 
     public void unregisterCallback(IGpioCallback callback) {
         synchronized(mLock) {
+            setListeners(withoutListener(callback));
+        }
+    }
+
+    /**
+     * Copy of the listeners without the one of callback, which is released.
+     * Called with mLock held.
+     */
+    private GpioListener[] withoutListener(IGpioCallback callback) {
+        GpioListener[] current = listeners;
+        for (int i=0; i<current.length; i++) {
+            if (current[i].callback.asBinder() == callback.asBinder()) {
+                releaseListener(current[i]);
+                if (current.length == 1)
+                    return NO_LISTENERS;
+                GpioListener[] next = new GpioListener[current.length - 1];
+                System.arraycopy(current, 0, next, 0, i);
+                System.arraycopy(current, i + 1, next, i, current.length - i - 1);
+                return next;
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Keeps the edges dropped by the listener's ring in the pin stats.
+     */
+    private void releaseListener(GpioListener listener) {
+        if (listener.ring != null)
+            stats.countDropped(listener.ring.getDroppedCount());
+        listener.release();
+    }
+
+    /**
+     * Snapshot of the edge statistics in the layout of
+     * {@link com.google.android.things.pio.GpioStats}.
+     */
+    public long[] getStats() {
+        GpioListener[] current = listeners;
+        long ringDropped = 0;
+        for (GpioListener listener: current) {
+            if (listener.ring != null)
+                ringDropped += listener.ring.getDroppedCount();
+        }
+        return stats.toArray(current.length, ringDropped);
+    }
+
+    public void resetStats() {
+        stats.reset();
+    }
+
+    /**
+     * Publishes a new listener snapshot, arms the native edge hook while any
+     * listener exists, and works out whether edges need their level.
+     * Called with mLock held.
+     */
+    private void setListeners(GpioListener[] next) {
+        boolean needsLevel = (edgeBatcher != null);
+        for (GpioListener listener: next) {
+            if ((listener.ring != null) || listener.isFiltered())
+                needsLevel = true;
+        }
+        needsEdgeLevel = needsLevel;
+        listeners = next;
+
+        if ((next.length > 0) && !callbackArmed) {
+            mGpioNative.registerCallback(gpioState.pin);
+            callbackArmed = true;
+        } else if ((next.length == 0) && callbackArmed) {
             mGpioNative.unregisterCallback(gpioState.pin);
-            remoteCallback.unregister(callback);
-            remoteCallback = null;
+            callbackArmed = false;
         }
     }
 
-    public void doCallback() {
-        synchronized(mLock) {
-            try {
-                int callbackCount = remoteCallback.beginBroadcast();
-                for (int i=0; i<callbackCount; i++) {
-                    IGpioCallback callback = remoteCallback.getBroadcastItem(i);
-                    try {
-                        callback.onGpioEdge();
-                    } catch (RemoteException e) {
-                        Log.d(TAG, "callback is not exit");
-                    }
+    /**
+     * Queue up to capacity edges and deliver them from the dispatcher workers
+     * instead of the native edge thread. A capacity of 0 delivers on the edge
+     * thread again.
+     */
+    public void setDispatchQueue(int capacity, int overflowPolicy) {
+        GpioEdgeDispatcher.Queue queue = null;
+        if (capacity > 0)
+            queue = new GpioEdgeDispatcher.Queue(this, capacity, overflowPolicy);
+
+        GpioEdgeDispatcher.Queue old = edgeQueue;
+        edgeQueue = queue;
+        if (old != null)
+            old.release();
+    }
+
+    public void setDebounce(int debounceMs) {
+        if (debounceMs < 0)
+            throw new IllegalArgumentException("debounce window should not be negative");
+        if (debounceMs > 0)
+            debouncedLevel = getValue();
+        this.debounceMs = debounceMs;
+    }
+
+    public void setEdgeCoalescing(boolean enabled) {
+        coalesce = enabled;
+    }
+
+    /**
+     * Entry of the native edge thread. Only the plain path, without
+     * debounce, batching or a dispatch queue, is lock free; each of those
+     * takes a short lock of its own per edge. None of them is held while a
+     * listener is called or shared with registration.
+     */
+    public void doCallback(long timestampNs) {
+        stats.countSeen();
+        if (debounceMs > 0) {
+            synchronized(mDebounceLock) {
+                lastEdgeNs = timestampNs;
+                if (!debouncePending) {
+                    debouncePending = true;
+                    getEdgeHandler().postDelayed(mDebounceExpired, debounceMs);
+                } else {
+                    stats.countSuppressed();
                 }
-                remoteCallback.finishBroadcast();
-            } catch(IllegalStateException e) {
             }
+            return;
         }
+
+        if (coalesce) {
+            coalescedEdgeNs = timestampNs;
+            if (!coalescePending.getAndSet(true))
+                getEdgeHandler().post(mCoalescedEdge);
+            else
+                stats.countSuppressed();
+            return;
+        }
+
+        GpioEdgeDispatcher.Queue queue = edgeQueue;
+        if (queue != null) {
+            queue.offer(timestampNs, needsEdgeLevel ? getEdgeLevel() : false);
+            return;
+        }
+
+        dispatchEdge(timestampNs);
+    }
+
+    /**
+     * Runs once the pin has been quiet for the debounce window, and reports
+     * a single edge if the settled level differs from the last reported one.
+     */
+    private final Runnable mDebounceExpired = new Runnable() {
+        public void run() {
+            long edgeNs;
+            synchronized(mDebounceLock) {
+                if (!debouncePending)
+                    return;
+                edgeNs = lastEdgeNs;
+                long windowNs = debounceMs * 1000000L;
+                long quietNs = SystemClock.elapsedRealtimeNanos() - edgeNs;
+                if (quietNs < windowNs) {
+                    // the pin moved again, this window merges into the next one.
+                    getEdgeHandler().postDelayed(this, (windowNs - quietNs) / 1000000 + 1);
+                    return;
+                }
+                // an edge from now on opens a window of its own.
+                debouncePending = false;
+            }
+
+            boolean level = getValue();
+            boolean changed;
+            switch (gpioState.triggerType) {
+                case Gpio.EDGE_RISING:
+                    changed = level;
+                    break;
+                case Gpio.EDGE_FALLING:
+                    changed = !level;
+                    break;
+                default:
+                    changed = (level != debouncedLevel);
+                    break;
+            }
+            debouncedLevel = level;
+            if (changed)
+                dispatchEdge(edgeNs, level);
+            else
+                stats.countSuppressed();
+        }
+    };
+
+    private final Runnable mCoalescedEdge = new Runnable() {
+        public void run() {
+            coalescePending.set(false);
+            dispatchEdge(coalescedEdgeNs);
+        }
+    };
+
+    private void dispatchEdge(long timestampNs) {
+        // the level is only looked at when a listener or the batcher needs it.
+        boolean level = needsEdgeLevel ? getEdgeLevel() : false;
+        dispatchEdge(timestampNs, level);
     }
 
+    /**
+     * Hot path of the native edge thread. It only walks the current listener
+     * snapshot, so it neither blocks on registration changes nor allocates.
+     * With batching the edge first goes through the batcher's lock.
+     */
+    void dispatchEdge(long timestampNs, boolean level) {
+        long startNs = SystemClock.elapsedRealtimeNanos();
+        stats.recordDispatchLatency(startNs - timestampNs);
+
+        GpioEdgeBatcher batcher = edgeBatcher;
+        if (batcher != null)
+            batcher.add(timestampNs, level);
+
+        int delivered = 0;
+        for (GpioListener listener: listeners) {
+            if (!listener.accepts(level))
+                continue;
+
+            if (listener.ring != null) {
+                listener.ring.write(timestampNs, level);
+                delivered++;
+            } else if (batcher == null) {
+                try {
+                    listener.callback.onGpioEdge();
+                    delivered++;
+                } catch (RemoteException e) {
+                    stats.countFailed();
+                    Log.d(TAG, "callback is not exit");
+                }
+            }
+        }
+        stats.countDelivered(delivered);
+        stats.recordDeliveryTime(SystemClock.elapsedRealtimeNanos() - startNs);
+    }
+
+    /**
+     * Tells every listener how many edges the dispatch queue had to drop.
+     */
+    void reportDroppedEdges(int droppedCount) {
+        stats.countDropped(droppedCount);
+        for (GpioListener listener: listeners) {
+            try {
+                listener.callback.onGpioEdgesDropped(droppedCount);
+            } catch (RemoteException e) {
+                Log.d(TAG, "callback is not exit");
+            }
+        }
+    }
+
+    private void broadcastEdges(long[] timestampsNs, boolean[] levels, int droppedCount) {
+        stats.countDropped(droppedCount);
+        for (GpioListener listener: listeners) {
+            if (listener.ring != null)
+                continue;
+
+            long[] listenerTimestamps = timestampsNs;
+            boolean[] listenerLevels = levels;
+            if (listener.isFiltered()) {
+                int count = listener.countAccepted(levels);
+                if ((count == 0) && (droppedCount == 0))
+                    continue;
+                listenerTimestamps = new long[count];
+                listenerLevels = new boolean[count];
+                listener.filter(timestampsNs, levels, listenerTimestamps, listenerLevels);
+            }
+
+            try {
+                listener.callback.onGpioEdges(listenerTimestamps, listenerLevels, droppedCount);
+                stats.countDelivered(listenerTimestamps.length);
+            } catch (RemoteException e) {
+                stats.countFailed();
+                Log.d(TAG, "callback is not exit");
+            }
+        }
+    }
+
+    /**
+     * _setGpioValues and _getGpioValues need a libthings that exports them
+     * and work on raw levels. Without them the bank calls fall back to one
+     * _setGpioValue or _getGpioValue per pin, which apply the active type
+     * of the pin themselves.
+     */
     private static class GpioNative {
+        private static volatile boolean sBank = true;
+
         public void setDirection(int pin, int direction) {
             _setGpioDirection(pin, direction);
         }
@@ -136,6 +585,39 @@ public class OdroidGpio implements Pin {
             return _getGpioValue(pin);
         }
 
+        public void setValues(int[] pins, long mask, long bits, long activeLowMask) {
+            if (sBank) {
+                try {
+                    _setGpioValues(pins, mask, bits ^ activeLowMask);
+                    return;
+                } catch (UnsatisfiedLinkError e) {
+                    sBank = false;
+                    Log.d(TAG, "libthings has no gpio bank natives, using per pin calls");
+                }
+            }
+            for (int i=0; i<pins.length; i++) {
+                if ((mask & (1L << i)) != 0)
+                    _setGpioValue(pins[i], (bits & (1L << i)) != 0);
+            }
+        }
+
+        public long getValues(int[] pins, long activeLowMask) {
+            if (sBank) {
+                try {
+                    return _getGpioValues(pins) ^ activeLowMask;
+                } catch (UnsatisfiedLinkError e) {
+                    sBank = false;
+                    Log.d(TAG, "libthings has no gpio bank natives, using per pin calls");
+                }
+            }
+            long bits = 0;
+            for (int i=0; i<pins.length; i++) {
+                if (_getGpioValue(pins[i]))
+                    bits |= 1L << i;
+            }
+            return bits;
+        }
+
         public void setActiveType(int pin, int activeType) {
             _setGpioActiveType(pin, activeType);
         }
@@ -156,6 +638,8 @@ public class OdroidGpio implements Pin {
     private static native void _setGpioDirection(int pin, int direction);
     private static native void _setGpioValue(int pin, boolean value);
     private static native boolean _getGpioValue(int pin);
+    private static native void _setGpioValues(int[] pins, long mask, long bits);
+    private static native long _getGpioValues(int[] pins);
     private static native void _setGpioActiveType(int pin, int activeType);
     private static native void _setEdgeTriggerType(int pin, int edgeTriggerType);
     private static native void _registerCallback(int pin);
@@ -0,0 +1,185 @@
+/*
+ *    Copyright (c) 2019 Sangchul Go <luke.go@hardkernel.com>
+ *
+ *    OdroidThings is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as
+ *    published by the Free Software Foundation, either version 3 of the
+ *    License, or (at your option) any later version.
+ *
+ *    OdroidThings is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with OdroidThings.
+ *    If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.google.android.things.odroid;
+
+import android.os.Process;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Samples a group of gpio pins at a fixed rate on a dedicated thread.
+ * Each sample is pinCount bits wide and the samples are stored back to back
+ * in a bit packed ring, oldest samples are overwritten when the client does
+ * not keep up.
+ * @hide
+ */
+public class OdroidGpioSampler implements Runnable {
+    private static final String TAG = "OdroidGpioSampler";
+    static final int MAX_RATE_HZ = 100000;
+    static final int MAX_CAPACITY = 1 << 20;
+
+    // below this the thread spins instead of parking, parkNanos is too coarse.
+    private static final long SPIN_NS = 100000;
+
+    private final int[] pins;
+    private final long activeLowMask;
+    private final int pinCount;
+    private final long sampleMask;
+    private final long periodNs;
+    private final int capacity;
+    private final long[] ring;
+
+    private final Object mLock = new Object();
+    private long writeCount;
+    private long readCount;
+    private long dropped;
+
+    private volatile boolean running;
+    private final Thread thread;
+
+    public OdroidGpioSampler(int[] pins, long activeLowMask, int rateHz, int capacity) {
+        if ((rateHz <= 0) || (rateHz > MAX_RATE_HZ))
+            throw new IllegalArgumentException("sampling rate should be 1 to " + MAX_RATE_HZ + "Hz");
+        if ((capacity <= 0) || (capacity > MAX_CAPACITY))
+            throw new IllegalArgumentException("capacity should be 1 to " + MAX_CAPACITY + " samples");
+
+        this.pins = pins.clone();
+        this.activeLowMask = activeLowMask;
+        pinCount = pins.length;
+        sampleMask = (pinCount == Long.SIZE) ? -1L : (1L << pinCount) - 1;
+        periodNs = 1000000000L / rateHz;
+
+        // round up so that the ring ends on a word boundary and no sample wraps around.
+        int unit = Long.SIZE / gcd(pinCount, Long.SIZE);
+        this.capacity = (capacity + unit - 1) / unit * unit;
+        ring = new long[(int)((long)this.capacity * pinCount / Long.SIZE)];
+
+        running = true;
+        thread = new Thread(this, TAG);
+        thread.start();
+    }
+
+    private static int gcd(int a, int b) {
+        return (b == 0) ? a : gcd(b, a % b);
+    }
+
+    public int[] getPins() {
+        return pins;
+    }
+
+    public long getDroppedCount() {
+        synchronized(mLock) {
+            return dropped;
+        }
+    }
+
+    @Override
+    public void run() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+
+        long deadline = System.nanoTime();
+        while (running) {
+            store(OdroidGpio.getValues(pins, activeLowMask));
+
+            deadline += periodNs;
+            long waitNs = deadline - System.nanoTime();
+            if (waitNs < -periodNs) {
+                // fell behind by more than a sample, restart the schedule from now.
+                synchronized(mLock) {
+                    dropped += -waitNs / periodNs;
+                }
+                deadline = System.nanoTime();
+                continue;
+            }
+            if (waitNs > SPIN_NS)
+                LockSupport.parkNanos(waitNs - SPIN_NS);
+            while (running && (deadline - System.nanoTime() > 0)) {
+            }
+        }
+    }
+
+    private void store(long bits) {
+        synchronized(mLock) {
+            if (writeCount - readCount == capacity) {
+                readCount++;
+                dropped++;
+            }
+            putBits((writeCount % capacity) * pinCount, bits);
+            writeCount++;
+        }
+    }
+
+    /**
+     * Moves the oldest samples into packed, bit n of sample i lands at bit
+     * (i * pinCount + n) of the array, least significant bit of each byte first.
+     *
+     * @return number of samples copied.
+     */
+    public int read(byte[] packed) {
+        synchronized(mLock) {
+            int count = (int)Math.min(writeCount - readCount, (long)packed.length * 8 / pinCount);
+            int usedBytes = (int)(((long)count * pinCount + 7) / 8);
+            for (int i=0; i<usedBytes; i++)
+                packed[i] = 0;
+
+            long outBit = 0;
+            for (int i=0; i<count; i++) {
+                long bits = getBits(((readCount + i) % capacity) * pinCount);
+                for (int n=0; n<pinCount; n++, outBit++) {
+                    if (((bits >>> n) & 1) != 0)
+                        packed[(int)(outBit >>> 3)] |= 1 << (outBit & 7);
+                }
+            }
+            readCount += count;
+            return count;
+        }
+    }
+
+    private void putBits(long bitPos, long bits) {
+        int word = (int)(bitPos >>> 6);
+        int shift = (int)(bitPos & 63);
+        bits &= sampleMask;
+
+        ring[word] = (ring[word] & ~(sampleMask << shift)) | (bits << shift);
+        if (shift + pinCount > Long.SIZE) {
+            long highMask = sampleMask >>> (Long.SIZE - shift);
+            ring[word + 1] = (ring[word + 1] & ~highMask) | (bits >>> (Long.SIZE - shift));
+        }
+    }
+
+    private long getBits(long bitPos) {
+        int word = (int)(bitPos >>> 6);
+        int shift = (int)(bitPos & 63);
+
+        long bits = ring[word] >>> shift;
+        if (shift + pinCount > Long.SIZE)
+            bits |= ring[word + 1] << (Long.SIZE - shift);
+        return bits & sampleMask;
+    }
+
+    public void stop() {
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
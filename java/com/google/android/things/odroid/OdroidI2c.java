@@ -20,75 +20,582 @@ package com.google.android.things.odroid;
 
 import com.google.android.things.odroid.Pin;
 
+import com.google.android.things.pio.I2cDevice;
+import com.google.android.things.pio.I2cTransaction;
+
+import android.os.ParcelFileDescriptor;
+import android.os.SharedMemory;
+import android.system.ErrnoException;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * @hide
  */
 public class OdroidI2c implements Pin {
     private static final String TAG = "OdroidI2c";
     private static final I2cNative mI2cNative = new I2cNative();
+    private static final I2cHandlePool sHandles = new I2cHandlePool();
     private int idx;
+    private final I2cHandlePool.Handle handle;
+    private final int nativeIdx;
     private final String name;
+    private final int ownerUid;
+    private final I2cBusScheduler bus;
+    private volatile int priority = I2cDevice.PRIORITY_NORMAL;
+    private volatile boolean closed;
 
     private static final int BYTE = 1;
     private static final int WORD = 2;
+    // longest SMBus i2c block transfer.
+    private static final int BLOCK_MAX = 32;
+
+    // shared with the client, transfers through it skip the binder copies.
+    private SharedMemory transferMemory;
+    private ByteBuffer transferMapping;
+
+    private static final int MAX_STREAMS = 4;
+    // a full pipe buffer takes some 6 seconds at 100kHz.
+    private static final long FINISH_TIMEOUT_MS = 30000;
+    private final List<OdroidI2cStream> streams = new ArrayList<>();
+    private OdroidI2cStream writeStream;
 
-    public OdroidI2c(String name, int i2cNameIdx, int address, int idx) {
+    private volatile OdroidI2cFifo fifo;
+
+    public OdroidI2c(String name, int i2cNameIdx, int address, int idx, int ownerUid) {
         this.idx = idx;
         this.name = name;
-        mI2cNative.open(i2cNameIdx, address, idx);
+        this.ownerUid = ownerUid;
+        bus = I2cBusScheduler.of(name);
+        handle = sHandles.acquire(i2cNameIdx, address);
+        nativeIdx = handle.nativeIdx;
+        bus.attach(ownerUid);
+    }
+
+    static void openHandle(int i2cNameIdx, int address, int nativeIdx) {
+        mI2cNative.open(i2cNameIdx, address, nativeIdx);
+    }
+
+    static void closeHandle(int nativeIdx) {
+        mI2cNative.close(nativeIdx);
     }
 
     public Mode getCurrentMode() {
         return Mode.I2C;
     }
 
+    /**
+     * Closes the device once the transfer in flight on its bus is done,
+     * transfers that still wait for the bus fail afterwards. The native
+     * handle goes back to the pool.
+     */
     @Override
     public void close() {
-        mI2cNative.close(idx);
+        bus.acquire(ownerUid, I2cDevice.PRIORITY_REALTIME);
+        try {
+            if (closed)
+                return;
+            closed = true;
+        } finally {
+            bus.release();
+        }
+        bus.detach(ownerUid);
+        stopStreams();
+        OdroidI2cFifo current = fifo;
+        if (current != null)
+            current.clearTrigger();
+        sHandles.release(handle);
+        // outside of the bus, transfer region users take the bus while holding this.
+        releaseTransferRegion();
+    }
+
+    private void acquireBus() {
+        bus.acquire(ownerUid, priority);
+        if (closed) {
+            bus.release();
+            throw new IllegalStateException("i2c(" + name + ") is closed");
+        }
+    }
+
+    /**
+     * Priority class of this device's transfers on the bus scheduler.
+     */
+    public void setPriority(int priority) {
+        I2cBusScheduler.checkPriority(priority);
+        this.priority = priority;
+    }
+
+    /**
+     * Creates the transfer region of this device, replacing the previous one.
+     */
+    public synchronized SharedMemory getTransferRegion(int size) {
+        if ((size <= 0) || (size > I2cDevice.MAX_TRANSFER_SIZE))
+            throw new IllegalArgumentException("transfer region should be 1 to " + I2cDevice.MAX_TRANSFER_SIZE + " bytes");
+
+        releaseTransferRegion();
+        try {
+            SharedMemory memory = SharedMemory.create("i2c-transfer-" + name + "-" + idx, size);
+            try {
+                transferMapping = memory.mapReadWrite();
+            } catch (ErrnoException e) {
+                memory.close();
+                throw e;
+            }
+            transferMemory = memory;
+        } catch (ErrnoException e) {
+            throw new IllegalStateException("i2c transfer region is not created");
+        }
+        return transferMemory;
+    }
+
+    private synchronized void releaseTransferRegion() {
+        if (transferMemory == null)
+            return;
+        SharedMemory.unmap(transferMapping);
+        transferMapping = null;
+        transferMemory.close();
+        transferMemory = null;
+    }
+
+    /**
+     * Reads length bytes from reg into the start of the transfer region.
+     */
+    public synchronized boolean readRegTransfer(int reg, int length) {
+        if ((transferMapping == null) || (length < 0) || (length > transferMapping.capacity()))
+            return false;
+        acquireBus();
+        try {
+            return mI2cNative.readRegDirect(nativeIdx, reg, transferMapping, length);
+        } finally {
+            bus.release();
+        }
+    }
+
+    /**
+     * Writes the first length bytes of the transfer region to reg.
+     */
+    public synchronized boolean writeRegTransfer(int reg, int length) {
+        if ((transferMapping == null) || (length < 0) || (length > transferMapping.capacity()))
+            return false;
+        acquireBus();
+        try {
+            return mI2cNative.writeRegDirect(nativeIdx, reg, transferMapping, length);
+        } finally {
+            bus.release();
+        }
+    }
+
+    synchronized int getTransferCapacity() {
+        return (transferMapping == null) ? 0 : transferMapping.capacity();
+    }
+
+    /**
+     * Copies length bytes of data from offset to regionOffset of the
+     * transfer region.
+     *
+     * @return false if the region was released or is too small by now.
+     */
+    synchronized boolean putTransfer(byte[] data, int offset, int regionOffset, int length) {
+        if ((transferMapping == null) || (regionOffset + length > transferMapping.capacity()))
+            return false;
+        transferMapping.clear();
+        transferMapping.position(regionOffset);
+        transferMapping.put(data, offset, length);
+        transferMapping.clear();
+        return true;
     }
 
     public byte[] read(int length) {
-        return mI2cNative.readRegBuffer(idx, 0, length);
+        return readRegBuffer(0, length);
     }
 
     public byte[] readRegBuffer(int reg, int length) {
-        return mI2cNative.readRegBuffer(idx, reg, length);
+        acquireBus();
+        try {
+            if ((length > 0) && (length <= BLOCK_MAX)) {
+                byte[] buffer = new byte[length];
+                if (!mI2cNative.readRegBlock(nativeIdx, reg, buffer, length))
+                    return null;
+                return buffer;
+            }
+            return mI2cNative.readRegBuffer(nativeIdx, reg, length);
+        } finally {
+            bus.release();
+        }
     }
 
     public byte readRegByte(int reg) {
-        byte[] buffer = mI2cNative.readRegBuffer(idx, reg, BYTE);
-        byte result = buffer[0];
-        return result;
+        int result;
+        acquireBus();
+        try {
+            result = mI2cNative.readRegByte(nativeIdx, reg);
+        } finally {
+            bus.release();
+        }
+        if (result < 0)
+            throw new IllegalStateException("i2c(" + name + ") read is failed");
+        return (byte)result;
     }
 
     public short readRegWord(int reg) {
-        byte[] buffer = mI2cNative.readRegBuffer(idx, reg, WORD);
-        short result = (short)(((buffer[1] & 0xFF)<<8)|(buffer[0] & 0xFF));
-        return result;
+        int result;
+        acquireBus();
+        try {
+            result = mI2cNative.readRegWord(nativeIdx, reg);
+        } finally {
+            bus.release();
+        }
+        if (result < 0)
+            throw new IllegalStateException("i2c(" + name + ") read is failed");
+        return (short)result;
     }
 
     public boolean write(byte[] buffer, int length) {
-        return mI2cNative.writeRegBuffer(idx, 0, buffer, length);
+        return writeRegBuffer(0, buffer, length);
     }
 
     public boolean writeRegBuffer(int reg, byte[] buffer, int length) {
-        return mI2cNative.writeRegBuffer(idx, reg, buffer, length);
+        acquireBus();
+        try {
+            if ((length > 0) && (length <= BLOCK_MAX))
+                return mI2cNative.writeRegBlock(nativeIdx, reg, buffer, length);
+            return mI2cNative.writeRegBuffer(nativeIdx, reg, buffer, length);
+        } finally {
+            bus.release();
+        }
     }
 
     public boolean writeRegByte(int reg, byte data) {
-        byte[] buffer = new byte[BYTE];
-        buffer[0] = data;
-        return mI2cNative.writeRegBuffer(idx, reg, buffer, BYTE);
+        acquireBus();
+        try {
+            return mI2cNative.writeRegByte(nativeIdx, reg, data & 0xFF);
+        } finally {
+            bus.release();
+        }
     }
 
     public boolean writeRegWord(int reg, short data) {
-        byte[] buffer = new byte[WORD];
-        buffer[1] = (byte)((data & 0xFF00) >> 8);
-        buffer[0] = (byte)(data & 0xFF);
-        return mI2cNative.writeRegBuffer(idx, reg, buffer, WORD);
+        acquireBus();
+        try {
+            return mI2cNative.writeRegWord(nativeIdx, reg, data & 0xFFFF);
+        } finally {
+            bus.release();
+        }
+    }
+
+    /**
+     * Atomic read-modify-write of the bits in mask of a byte register, no
+     * other transfer gets on the bus in between. Nothing is written when the
+     * bits already match.
+     */
+    public boolean updateRegBits(int reg, int mask, int value) {
+        acquireBus();
+        try {
+            return updateRegBitsLocked(reg, BYTE, mask, value);
+        } finally {
+            bus.release();
+        }
+    }
+
+    public boolean updateRegWordBits(int reg, int mask, int value) {
+        acquireBus();
+        try {
+            return updateRegBitsLocked(reg, WORD, mask, value);
+        } finally {
+            bus.release();
+        }
+    }
+
+    /**
+     * updateRegBits of several byte registers in order, all in one go on the
+     * bus. Stops at the first failed transfer.
+     */
+    public boolean updateRegsBits(int[] regs, int[] masks, int[] values) {
+        if ((regs.length == 0) || (regs.length > I2cDevice.MAX_UPDATE_REGISTERS) ||
+                (masks.length != regs.length) || (values.length != regs.length))
+            throw new IllegalArgumentException("update should have 1 to " + I2cDevice.MAX_UPDATE_REGISTERS + " registers with a mask and value each");
+
+        acquireBus();
+        try {
+            for (int i=0; i<regs.length; i++) {
+                if (!updateRegBitsLocked(regs[i], BYTE, masks[i], values[i]))
+                    return false;
+            }
+            return true;
+        } finally {
+            bus.release();
+        }
+    }
+
+    // called with the bus held.
+    private boolean updateRegBitsLocked(int reg, int width, int mask, int value) {
+        int current = readRegLocked(reg, width);
+        if (current < 0)
+            return false;
+        int valueMask = (width == BYTE) ? 0xFF : 0xFFFF;
+        int next = ((current & ~mask) | (value & mask)) & valueMask;
+        if (next == current)
+            return true;
+        return writeRegLocked(reg, width, next);
+    }
+
+    // called with the bus held, returns -1 when the read failed.
+    private int readRegLocked(int reg, int width) {
+        if (width == BYTE)
+            return mI2cNative.readRegByte(nativeIdx, reg);
+        return mI2cNative.readRegWord(nativeIdx, reg);
+    }
+
+    // called with the bus held.
+    private boolean writeRegLocked(int reg, int width, int value) {
+        if (width == BYTE)
+            return mI2cNative.writeRegByte(nativeIdx, reg, value);
+        return mI2cNative.writeRegWord(nativeIdx, reg, value);
+    }
+
+    /**
+     * Reads length bytes from reg into the start of a direct buffer.
+     */
+    public boolean readRegInto(int reg, ByteBuffer buffer, int length) {
+        acquireBus();
+        try {
+            return mI2cNative.readRegDirect(nativeIdx, reg, buffer, length);
+        } finally {
+            bus.release();
+        }
+    }
+
+    /**
+     * Addresses the device without any data.
+     *
+     * @return true if the device acknowledged.
+     */
+    public boolean probe() {
+        acquireBus();
+        try {
+            return mI2cNative.probe(nativeIdx);
+        } finally {
+            bus.release();
+        }
+    }
+
+    /**
+     * Writes length bytes from the start of a direct buffer to reg.
+     */
+    public boolean writeRegFrom(int reg, ByteBuffer buffer, int length) {
+        acquireBus();
+        try {
+            return mI2cNative.writeRegDirect(nativeIdx, reg, buffer, length);
+        } finally {
+            bus.release();
+        }
+    }
+
+    /**
+     * Starts pumping length bytes from reg into a pipe.
+     *
+     * @return the read side of the pipe.
+     */
+    public ParcelFileDescriptor openReadStream(int reg, int length, int chunkSize, boolean incrementReg) {
+        return openStream(true, reg, length, chunkSize, incrementReg).getClientEnd();
     }
 
+    /**
+     * Starts pumping length bytes from a pipe to reg, only one write stream
+     * of a device is open at a time.
+     *
+     * @return the write side of the pipe.
+     */
+    public ParcelFileDescriptor openWriteStream(int reg, int length, int chunkSize, boolean incrementReg) {
+        return openStream(false, reg, length, chunkSize, incrementReg).getClientEnd();
+    }
+
+    private OdroidI2cStream openStream(boolean isRead, int reg, int length, int chunkSize, boolean incrementReg) {
+        if (closed)
+            throw new IllegalStateException("i2c(" + name + ") is closed");
+        synchronized(streams) {
+            streams.removeIf((stream) -> stream.isDone() && (stream != writeStream));
+            if (streams.size() >= MAX_STREAMS)
+                throw new IllegalStateException("i2c(" + name + ") has " + MAX_STREAMS + " streams already");
+            if (!isRead && (writeStream != null))
+                throw new IllegalStateException("i2c(" + name + ") write stream is not finished");
+
+            OdroidI2cStream stream = new OdroidI2cStream(this, ownerUid, isRead, reg, length, chunkSize, incrementReg);
+            streams.add(stream);
+            if (!isRead)
+                writeStream = stream;
+            return stream;
+        }
+    }
+
+    /**
+     * Waits for the write stream, the client closes its end first, so only
+     * what is still buffered in the pipe is left to write. The stream is
+     * stopped if that takes longer than FINISH_TIMEOUT_MS.
+     *
+     * @return true if the whole stream was written.
+     */
+    public boolean finishWriteStream() {
+        OdroidI2cStream stream;
+        synchronized(streams) {
+            stream = writeStream;
+            writeStream = null;
+        }
+        if (stream == null)
+            return false;
+        return stream.await(FINISH_TIMEOUT_MS);
+    }
+
+    private void stopStreams() {
+        List<OdroidI2cStream> stopped;
+        synchronized(streams) {
+            stopped = new ArrayList<>(streams);
+            streams.clear();
+            writeStream = null;
+        }
+        for (OdroidI2cStream stream: stopped)
+            stream.stop();
+    }
+
+    /**
+     * Describes the FIFO that drainFifo reads, replacing the previous one and
+     * its trigger.
+     */
+    public synchronized void setFifo(int levelReg, int levelFormat, int levelMask,
+            int levelUnit, int dataReg, int sampleSize) {
+        OdroidI2cFifo next = new OdroidI2cFifo(this, levelReg, levelFormat, levelMask,
+                levelUnit, dataReg, sampleSize);
+        if (fifo != null)
+            fifo.clearTrigger();
+        fifo = next;
+    }
+
+    private OdroidI2cFifo fifoOf() {
+        OdroidI2cFifo current = fifo;
+        if (current == null)
+            throw new IllegalStateException("i2c(" + name + ") has no fifo");
+        return current;
+    }
+
+    public void setFifoTrigger(OdroidGpio gpio, int edgeType, int capacity) {
+        if (closed)
+            throw new IllegalStateException("i2c(" + name + ") is closed");
+        fifoOf().setTrigger(gpio, edgeType, capacity);
+    }
+
+    public int drainFifo(int maxBytes, int timeoutMs) {
+        return fifoOf().drain(maxBytes, timeoutMs);
+    }
+
+    public long getFifoDroppedCount() {
+        return fifoOf().getDroppedCount();
+    }
+
+    public long getFifoFailedDrainCount() {
+        return fifoOf().getFailedDrainCount();
+    }
+
+    public int getFifoStatus() {
+        return fifoOf().getStatus();
+    }
+
+    /**
+     * Reads the fill level of fifo and then the whole samples it holds, up to
+     * capacity bytes, into the start of a direct buffer. Both go under one
+     * bus grant.
+     *
+     * @return bytes read, or -1 if a transfer failed.
+     */
+    int readFifoInto(OdroidI2cFifo fifo, ByteBuffer buffer, int capacity) {
+        acquireBus();
+        try {
+            return readFifoLocked(fifo, buffer, capacity);
+        } finally {
+            bus.release();
+        }
+    }
+
+    /**
+     * readFifoInto the transfer region.
+     */
+    synchronized int readFifoTransfer(OdroidI2cFifo fifo, int maxBytes) {
+        if (transferMapping == null)
+            return -1;
+        acquireBus();
+        try {
+            return readFifoLocked(fifo, transferMapping, Math.min(maxBytes, transferMapping.capacity()));
+        } finally {
+            bus.release();
+        }
+    }
+
+    // called with the bus held.
+    private int readFifoLocked(OdroidI2cFifo fifo, ByteBuffer buffer, int capacity) {
+        int level = readRegLocked(fifo.levelReg, fifo.isWordLevel() ? WORD : BYTE);
+        if (level < 0)
+            return -1;
+        int count = Math.min(fifo.levelBytes(level), capacity);
+        count -= count % fifo.sampleSize;
+        if (count == 0)
+            return 0;
+        if (!mI2cNative.readRegDirect(nativeIdx, fifo.dataReg, buffer, count))
+            return -1;
+        return count;
+    }
+
+    /**
+     * Runs the segments as one combined kernel transfer.
+     *
+     * @return the data of the read segments back to back, or null if the
+     * transfer failed.
+     */
+    public byte[] transact(boolean[] reads, int[] lengths, byte[] writeData) {
+        if ((reads.length == 0) || (reads.length > I2cTransaction.MAX_SEGMENTS) || (reads.length != lengths.length))
+            throw new IllegalArgumentException("transaction should have 1 to " + I2cTransaction.MAX_SEGMENTS + " segments");
+
+        int readLength = 0;
+        int writeLength = 0;
+        for (int i=0; i<lengths.length; i++) {
+            if ((lengths[i] <= 0) || (lengths[i] > I2cDevice.MAX_TRANSFER_SIZE))
+                throw new IllegalArgumentException("segment should be 1 to " + I2cDevice.MAX_TRANSFER_SIZE + " bytes");
+            if (reads[i])
+                readLength += lengths[i];
+            else
+                writeLength += lengths[i];
+        }
+        if (writeData.length != writeLength)
+            throw new IllegalArgumentException("write data does not match the write segments");
+
+        byte[] readData = new byte[readLength];
+        boolean result;
+        acquireBus();
+        try {
+            result = mI2cNative.transact(nativeIdx, reads, lengths, writeData, readData);
+        } finally {
+            bus.release();
+        }
+        return result ? readData : null;
+    }
+
+    /**
+     * The SMBus, block, probe and direct buffer natives need a libthings
+     * that exports them; older builds only have _readRegBuffer and
+     * _writeRegBuffer. The first UnsatisfiedLinkError turns a group off and
+     * its calls go through the buffer natives from then on.
+     */
     private static class I2cNative {
+        private static volatile boolean sSmbus = true;
+        private static volatile boolean sBlock = true;
+        private static volatile boolean sProbe = true;
+        private static volatile boolean sDirect = true;
+
+        private static void missing(String group) {
+            Log.d(TAG, "libthings has no " + group + " natives, using buffer transfers");
+        }
+
         public void open(int i2cNameIdx, int address, int idx) {
             _open(i2cNameIdx, address, idx);
         }
@@ -104,8 +611,166 @@ public class OdroidI2c implements Pin {
         public boolean writeRegBuffer(int idx, int reg, byte[] buffer, int length) {
             return _writeRegBuffer(idx, reg, buffer, length);
         }
+
+        public int readRegByte(int idx, int reg) {
+            if (sSmbus) {
+                try {
+                    return _readRegByte(idx, reg);
+                } catch (UnsatisfiedLinkError e) {
+                    sSmbus = false;
+                    missing("SMBus");
+                }
+            }
+            byte[] buffer = _readRegBuffer(idx, reg, 1);
+            if (buffer == null)
+                return -1;
+            return buffer[0] & 0xFF;
+        }
+
+        public int readRegWord(int idx, int reg) {
+            if (sSmbus) {
+                try {
+                    return _readRegWord(idx, reg);
+                } catch (UnsatisfiedLinkError e) {
+                    sSmbus = false;
+                    missing("SMBus");
+                }
+            }
+            byte[] buffer = _readRegBuffer(idx, reg, 2);
+            if (buffer == null)
+                return -1;
+            return ((buffer[1] & 0xFF) << 8) | (buffer[0] & 0xFF);
+        }
+
+        public boolean writeRegByte(int idx, int reg, int data) {
+            if (sSmbus) {
+                try {
+                    return _writeRegByte(idx, reg, data);
+                } catch (UnsatisfiedLinkError e) {
+                    sSmbus = false;
+                    missing("SMBus");
+                }
+            }
+            byte[] buffer = new byte[] {(byte)data};
+            return _writeRegBuffer(idx, reg, buffer, 1);
+        }
+
+        public boolean writeRegWord(int idx, int reg, int data) {
+            if (sSmbus) {
+                try {
+                    return _writeRegWord(idx, reg, data);
+                } catch (UnsatisfiedLinkError e) {
+                    sSmbus = false;
+                    missing("SMBus");
+                }
+            }
+            byte[] buffer = new byte[] {(byte)(data & 0xFF), (byte)((data >> 8) & 0xFF)};
+            return _writeRegBuffer(idx, reg, buffer, 2);
+        }
+
+        public boolean readRegBlock(int idx, int reg, byte[] buffer, int length) {
+            if (sBlock) {
+                try {
+                    return _readRegBlock(idx, reg, buffer, length);
+                } catch (UnsatisfiedLinkError e) {
+                    sBlock = false;
+                    missing("block");
+                }
+            }
+            byte[] result = _readRegBuffer(idx, reg, length);
+            if (result == null)
+                return false;
+            System.arraycopy(result, 0, buffer, 0, length);
+            return true;
+        }
+
+        public boolean writeRegBlock(int idx, int reg, byte[] buffer, int length) {
+            if (sBlock) {
+                try {
+                    return _writeRegBlock(idx, reg, buffer, length);
+                } catch (UnsatisfiedLinkError e) {
+                    sBlock = false;
+                    missing("block");
+                }
+            }
+            return _writeRegBuffer(idx, reg, buffer, length);
+        }
+
+        // no fallback, a combined transfer can not be split into buffer
+        // transfers without losing the repeated start between segments.
+        public boolean transact(int idx, boolean[] reads, int[] lengths, byte[] writeData, byte[] readData) {
+            try {
+                return _transact(idx, reads, lengths, writeData, readData);
+            } catch (UnsatisfiedLinkError e) {
+                throw new UnsupportedOperationException("i2c transaction needs a libthings with _transact");
+            }
+        }
+
+        public boolean probe(int idx) {
+            if (sProbe) {
+                try {
+                    return _probe(idx);
+                } catch (UnsatisfiedLinkError e) {
+                    sProbe = false;
+                    missing("probe");
+                }
+            }
+            // a one byte read is acknowledged or not just the same, only
+            // slower and it moves the address pointer of the device.
+            return _readRegBuffer(idx, 0, 1) != null;
+        }
+
+        public boolean readRegDirect(int idx, int reg, ByteBuffer buffer, int length) {
+            if (sDirect) {
+                try {
+                    return _readRegDirect(idx, reg, buffer, length);
+                } catch (UnsatisfiedLinkError e) {
+                    sDirect = false;
+                    missing("direct buffer");
+                }
+            }
+            byte[] result = _readRegBuffer(idx, reg, length);
+            if (result == null)
+                return false;
+            ByteBuffer view = buffer.duplicate();
+            view.clear();
+            view.put(result, 0, length);
+            return true;
+        }
+
+        public boolean writeRegDirect(int idx, int reg, ByteBuffer buffer, int length) {
+            if (sDirect) {
+                try {
+                    return _writeRegDirect(idx, reg, buffer, length);
+                } catch (UnsatisfiedLinkError e) {
+                    sDirect = false;
+                    missing("direct buffer");
+                }
+            }
+            byte[] data = new byte[length];
+            ByteBuffer view = buffer.duplicate();
+            view.clear();
+            view.get(data, 0, length);
+            return _writeRegBuffer(idx, reg, data, length);
+        }
     }
 
+    // SMBus byte and word data transfers, reads return the value or a negative errno.
+    private static native int _readRegByte(int idx, int reg);
+    private static native int _readRegWord(int idx, int reg);
+    private static native boolean _writeRegByte(int idx, int reg, int data);
+    private static native boolean _writeRegWord(int idx, int reg, int data);
+    // SMBus i2c block transfers of up to 32 bytes, straight from and into buffer.
+    private static native boolean _readRegBlock(int idx, int reg, byte[] buffer, int length);
+    private static native boolean _writeRegBlock(int idx, int reg, byte[] buffer, int length);
+    // one I2C_RDWR ioctl, write segments take their data from writeData and
+    // read segments fill readData in order.
+    private static native boolean _transact(int idx, boolean[] reads, int[] lengths, byte[] writeData, byte[] readData);
+    // zero length write, true when the address is acknowledged.
+    private static native boolean _probe(int idx);
+    // buffer is a direct buffer, read into and written from its start.
+    private static native boolean _readRegDirect(int idx, int reg, ByteBuffer buffer, int length);
+    private static native boolean _writeRegDirect(int idx, int reg, ByteBuffer buffer, int length);
     private static native void _open(int i2cNameIdx, int address, int idx);
     private static native void _close(int idx);
     private static native byte[] _readRegBuffer(int idx, int reg, int length);
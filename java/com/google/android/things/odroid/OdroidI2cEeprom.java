@@ -0,0 +1,118 @@
+/*
+ *    Copyright (c) 2019 Sangchul Go <luke.go@hardkernel.com>
+ *
+ *    OdroidThings is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as
+ *    published by the Free Software Foundation, either version 3 of the
+ *    License, or (at your option) any later version.
+ *
+ *    OdroidThings is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with OdroidThings.
+ *    If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.google.android.things.odroid;
+
+import com.google.android.things.pio.I2cDevice;
+
+import android.os.SystemClock;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sequential reads and page writes of 24Cxx style i2c memories, addressed
+ * by one or two bytes, most significant first.
+ *
+ * A memory wraps around within a page instead of crossing into the next
+ * one, so writes are split at page boundaries. After each page the memory
+ * is busy with its write cycle and does not acknowledge its address, so
+ * the next page waits by ACK polling rather than a fixed worst case sleep.
+ * The bus is released between polls for the other devices on it.
+ * @hide
+ */
+public final class OdroidI2cEeprom {
+    static final int MAX_PAGE_SIZE = 256;
+    // longest write cycle of the 24Cxx parts is 10ms, with some margin.
+    private static final long WRITE_CYCLE_TIMEOUT_NS = 25000000L;
+    private static final long POLL_INTERVAL_NS = 100000L;
+
+    private OdroidI2cEeprom() {}
+
+    public static byte[] read(OdroidI2c i2c, int address, int addressWidth, int length) {
+        checkAccess(address, addressWidth, length);
+
+        byte[] addressData = new byte[addressWidth];
+        putAddress(addressData, address, addressWidth);
+        return i2c.transact(new boolean[] {false, true},
+                new int[] {addressWidth, length}, addressData);
+    }
+
+    /**
+     * Writes data page by page from address, each page is stored before
+     * this returns.
+     *
+     * @return false if a page write failed or the memory stayed busy.
+     */
+    public static boolean write(OdroidI2c i2c, int address, int addressWidth, int pageSize, byte[] data) {
+        checkAccess(address, addressWidth, data.length);
+        if ((pageSize <= 0) || (pageSize > MAX_PAGE_SIZE) || ((pageSize & (pageSize - 1)) != 0))
+            throw new IllegalArgumentException("page size should be a power of two up to " + MAX_PAGE_SIZE + " bytes");
+
+        boolean[] reads = new boolean[] {false};
+        int[] lengths = new int[1];
+        byte[] page = null;
+        int offset = 0;
+        while (offset < data.length) {
+            int pageAddress = address + offset;
+            int count = Math.min(data.length - offset, pageSize - (pageAddress & (pageSize - 1)));
+
+            // full pages share one buffer, the partial first and last get their own.
+            if ((page == null) || (page.length != addressWidth + count))
+                page = new byte[addressWidth + count];
+            putAddress(page, pageAddress, addressWidth);
+            System.arraycopy(data, offset, page, addressWidth, count);
+            lengths[0] = page.length;
+
+            if (i2c.transact(reads, lengths, page) == null)
+                return false;
+            if (!waitWriteCycle(i2c))
+                return false;
+            offset += count;
+        }
+        return true;
+    }
+
+    private static boolean waitWriteCycle(OdroidI2c i2c) {
+        long deadlineNs = SystemClock.elapsedRealtimeNanos() + WRITE_CYCLE_TIMEOUT_NS;
+        while (!i2c.probe()) {
+            if (SystemClock.elapsedRealtimeNanos() > deadlineNs)
+                return false;
+            LockSupport.parkNanos(POLL_INTERVAL_NS);
+        }
+        return true;
+    }
+
+    private static void checkAccess(int address, int addressWidth, int length) {
+        if ((addressWidth != 1) && (addressWidth != 2))
+            throw new IllegalArgumentException("address width should be 1 or 2 bytes");
+        if ((length <= 0) || (length > I2cDevice.MAX_TRANSFER_SIZE))
+            throw new IllegalArgumentException("length should be 1 to " + I2cDevice.MAX_TRANSFER_SIZE + " bytes");
+        int size = 1 << (8 * addressWidth);
+        if ((address < 0) || (address > size - length))
+            throw new IllegalArgumentException("address and length are out of the " + size + " bytes address space");
+    }
+
+    private static void putAddress(byte[] buffer, int address, int addressWidth) {
+        if (addressWidth == 2) {
+            buffer[0] = (byte)(address >> 8);
+            buffer[1] = (byte)address;
+        } else {
+            buffer[0] = (byte)address;
+        }
+    }
+}
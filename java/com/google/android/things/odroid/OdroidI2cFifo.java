@@ -0,0 +1,383 @@
+/*
+ *    Copyright (c) 2019 Sangchul Go <luke.go@hardkernel.com>
+ *
+ *    OdroidThings is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as
+ *    published by the Free Software Foundation, either version 3 of the
+ *    License, or (at your option) any later version.
+ *
+ *    OdroidThings is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with OdroidThings.
+ *    If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.google.android.things.odroid;
+
+import com.google.android.things.pio.I2cDevice;
+import com.google.android.things.pio.IGpioCallback;
+
+import android.os.Process;
+import android.os.SystemClock;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * On-chip FIFO of an i2c sensor, drained by reading its fill level and
+ * then the whole samples it holds, both under one bus grant.
+ *
+ * Without a trigger a drain reads the FIFO right away. With a data-ready
+ * gpio as trigger, the service drains the FIFO on a service thread at each
+ * edge and stages the samples in a ring, oldest samples are dropped when
+ * the client does not keep up. The trigger is an in-process gpio listener,
+ * so an edge costs no binder call. The trigger stops when its gpio is
+ * closed or the transfer region goes away, the status tells which.
+ * @hide
+ */
+public class OdroidI2cFifo {
+    private static final String TAG = "OdroidI2cFifo";
+    static final int MAX_SAMPLE_SIZE = 256;
+    static final int MAX_STAGED_SIZE = 1 << 20;
+    static final int MAX_TIMEOUT_MS = 1000;
+
+    private static final int THREAD_COUNT = 2;
+    private static final ThreadPoolExecutor sDrainers = new ThreadPoolExecutor(
+            THREAD_COUNT, THREAD_COUNT, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+            new ThreadFactory() {
+                private int count = 0;
+                @Override
+                public synchronized Thread newThread(final Runnable r) {
+                    return new Thread(new Runnable() {
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+                            r.run();
+                        }
+                    }, TAG + "-" + count++);
+                }
+            });
+
+    static {
+        sDrainers.allowCoreThreadTimeOut(true);
+    }
+
+    private final OdroidI2c i2c;
+    final int levelReg;
+    final int levelFormat;
+    final int levelMask;
+    final int levelUnit;
+    final int dataReg;
+    final int sampleSize;
+
+    private final Object mLock = new Object();
+    private Trigger trigger;
+    private OdroidGpio triggerGpio;
+    private byte[] staged;
+    private int stagedStart;
+    private int stagedLength;
+    private long dropped;
+    private long failedDrains;
+    private int status = I2cDevice.FIFO_STATUS_OK;
+
+    public OdroidI2cFifo(OdroidI2c i2c, int levelReg, int levelFormat, int levelMask,
+            int levelUnit, int dataReg, int sampleSize) {
+        if ((levelFormat < I2cDevice.FIFO_LEVEL_BYTE) || (levelFormat > I2cDevice.FIFO_LEVEL_WORD_BE))
+            throw new IllegalArgumentException("level format should be BYTE, WORD_LE or WORD_BE");
+        if (levelMask <= 0)
+            throw new IllegalArgumentException("level mask should not be empty");
+        if ((levelUnit <= 0) || (levelUnit > MAX_SAMPLE_SIZE))
+            throw new IllegalArgumentException("level unit should be 1 to " + MAX_SAMPLE_SIZE + " bytes");
+        if ((sampleSize <= 0) || (sampleSize > MAX_SAMPLE_SIZE))
+            throw new IllegalArgumentException("sample size should be 1 to " + MAX_SAMPLE_SIZE + " bytes");
+
+        this.i2c = i2c;
+        this.levelReg = levelReg;
+        this.levelFormat = levelFormat;
+        this.levelMask = levelMask;
+        this.levelUnit = levelUnit;
+        this.dataReg = dataReg;
+        this.sampleSize = sampleSize;
+    }
+
+    boolean isWordLevel() {
+        return levelFormat != I2cDevice.FIFO_LEVEL_BYTE;
+    }
+
+    /**
+     * Bytes in the FIFO for a raw level register value. SMBus words are
+     * little endian, so big endian levels are swapped.
+     */
+    int levelBytes(int raw) {
+        if (levelFormat == I2cDevice.FIFO_LEVEL_WORD_BE)
+            raw = ((raw & 0xFF) << 8) | ((raw >> 8) & 0xFF);
+        return (raw & levelMask) * levelUnit;
+    }
+
+    /**
+     * Drains the FIFO on each edgeType edge of gpio from now on, staging up
+     * to capacity bytes. A null gpio removes the trigger.
+     */
+    public void setTrigger(OdroidGpio gpio, int edgeType, int capacity) {
+        clearTrigger();
+        if (gpio == null)
+            return;
+        if ((capacity < sampleSize) || (capacity > MAX_STAGED_SIZE))
+            throw new IllegalArgumentException("capacity should be " + sampleSize + " to " + MAX_STAGED_SIZE + " bytes");
+
+        capacity -= capacity % sampleSize;
+        int scratchSize = Math.min(capacity, I2cDevice.MAX_TRANSFER_SIZE);
+        Trigger next = new Trigger(scratchSize - (scratchSize % sampleSize));
+        synchronized(mLock) {
+            staged = new byte[capacity];
+            stagedStart = 0;
+            stagedLength = 0;
+            trigger = next;
+            triggerGpio = gpio;
+        }
+        gpio.registerCallback(next, edgeType);
+    }
+
+    public void clearTrigger() {
+        stopTrigger(null, I2cDevice.FIFO_STATUS_OK);
+    }
+
+    /**
+     * Removes the trigger, or only expected if it is still the current one,
+     * and records why. A lost trigger counts its staged samples as dropped.
+     */
+    private void stopTrigger(Trigger expected, int reason) {
+        Trigger current;
+        OdroidGpio gpio;
+        synchronized(mLock) {
+            current = trigger;
+            if ((expected != null) && (current != expected))
+                return;
+            gpio = triggerGpio;
+            if ((current != null) && (reason != I2cDevice.FIFO_STATUS_OK))
+                dropped += stagedLength / sampleSize;
+            trigger = null;
+            triggerGpio = null;
+            staged = null;
+            stagedLength = 0;
+            status = reason;
+            mLock.notifyAll();
+        }
+        if (current != null) {
+            current.stopped = true;
+            gpio.unregisterCallback(current);
+        }
+    }
+
+    /**
+     * Closing the trigger gpio drops its listeners without a word, so the
+     * trigger is checked for it whenever the client looks.
+     */
+    private void checkTrigger() {
+        Trigger current;
+        OdroidGpio gpio;
+        synchronized(mLock) {
+            current = trigger;
+            gpio = triggerGpio;
+        }
+        if ((current != null) && gpio.isClosed())
+            stopTrigger(current, I2cDevice.FIFO_STATUS_TRIGGER_LOST);
+    }
+
+    public int getStatus() {
+        checkTrigger();
+        synchronized(mLock) {
+            return status;
+        }
+    }
+
+    /**
+     * Samples lost to a full staging ring.
+     */
+    public long getDroppedCount() {
+        synchronized(mLock) {
+            return dropped;
+        }
+    }
+
+    /**
+     * Triggered drains whose FIFO read failed, the samples they would have
+     * read are not known.
+     */
+    public long getFailedDrainCount() {
+        synchronized(mLock) {
+            return failedDrains;
+        }
+    }
+
+    /**
+     * Moves up to maxBytes of whole samples into the start of the transfer
+     * region. Triggered, it takes the staged samples and waits up to
+     * timeoutMs for some, otherwise it reads the FIFO right away.
+     *
+     * @return bytes moved, or -1 if the FIFO read failed or the transfer
+     * region is gone.
+     */
+    public int drain(int maxBytes, int timeoutMs) {
+        if ((timeoutMs < 0) || (timeoutMs > MAX_TIMEOUT_MS))
+            throw new IllegalArgumentException("timeout should be 0 to " + MAX_TIMEOUT_MS + "ms");
+        if (maxBytes < sampleSize)
+            throw new IllegalArgumentException("drain should take at least " + sampleSize + " bytes");
+
+        checkTrigger();
+        Trigger current;
+        synchronized(mLock) {
+            current = trigger;
+        }
+        if (current == null)
+            return i2c.readFifoTransfer(this, maxBytes);
+
+        // the transfer region is only touched without mLock, the i2c monitor
+        // is taken before mLock elsewhere.
+        int capacity = i2c.getTransferCapacity();
+        if (capacity == 0) {
+            stopTrigger(current, I2cDevice.FIFO_STATUS_REGION_LOST);
+            return -1;
+        }
+        synchronized(current.taken) {
+            int count;
+            synchronized(mLock) {
+                count = takeStaged(current, Math.min(maxBytes, capacity), timeoutMs);
+            }
+            if ((count > 0) && !i2c.putTransfer(current.taken, 0, 0, count)) {
+                synchronized(mLock) {
+                    if (trigger == current)
+                        dropped += count / sampleSize;
+                }
+                stopTrigger(current, I2cDevice.FIFO_STATUS_REGION_LOST);
+                return -1;
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Moves up to limit bytes of whole staged samples into from.taken.
+     * Called with mLock held.
+     */
+    private int takeStaged(Trigger from, int limit, int timeoutMs) {
+        long deadlineNs = SystemClock.elapsedRealtimeNanos() + timeoutMs * 1000000L;
+        while ((stagedLength == 0) && (trigger == from)) {
+            long waitNs = deadlineNs - SystemClock.elapsedRealtimeNanos();
+            if (waitNs <= 0)
+                return 0;
+            try {
+                mLock.wait(waitNs / 1000000, (int)(waitNs % 1000000));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return 0;
+            }
+        }
+        if ((trigger != from) || (stagedLength == 0))
+            return 0;
+
+        int count = Math.min(stagedLength, Math.min(limit, from.taken.length));
+        count -= count % sampleSize;
+        if (count == 0)
+            return 0;
+        int first = Math.min(count, staged.length - stagedStart);
+        System.arraycopy(staged, stagedStart, from.taken, 0, first);
+        System.arraycopy(staged, 0, from.taken, first, count - first);
+        stagedStart = (stagedStart + count) % staged.length;
+        stagedLength -= count;
+        return count;
+    }
+
+    private void stage(Trigger from, ByteBuffer scratch, int count) {
+        synchronized(mLock) {
+            if (trigger != from)
+                return;
+            int over = stagedLength + count - staged.length;
+            if (over > 0) {
+                stagedStart = (stagedStart + over) % staged.length;
+                stagedLength -= over;
+                dropped += over / sampleSize;
+            }
+
+            scratch.clear();
+            int end = (stagedStart + stagedLength) % staged.length;
+            int first = Math.min(count, staged.length - end);
+            scratch.get(staged, end, first);
+            scratch.get(staged, 0, count - first);
+            stagedLength += count;
+            mLock.notifyAll();
+        }
+    }
+
+    private void countFailed(Trigger from) {
+        synchronized(mLock) {
+            if (trigger == from)
+                failedDrains++;
+        }
+    }
+
+    /**
+     * In-process gpio listener, edges only schedule a drain, and edges that
+     * come while one is pending are covered by it.
+     */
+    private class Trigger extends IGpioCallback.Stub implements Runnable {
+        private final ByteBuffer scratch;
+        // staged samples on their way to the transfer region.
+        final byte[] taken;
+        private final AtomicBoolean pending = new AtomicBoolean();
+        volatile boolean stopped;
+
+        Trigger(int scratchSize) {
+            scratch = ByteBuffer.allocateDirect(scratchSize);
+            taken = new byte[scratchSize];
+        }
+
+        @Override
+        public void onGpioEdge() {
+            if (!stopped && !pending.getAndSet(true))
+                sDrainers.execute(this);
+        }
+
+        @Override
+        public void onGpioEdges(long[] timestampsNs, boolean[] levels, int droppedCount) {
+            onGpioEdge();
+        }
+
+        @Override
+        public void onGpioEdgesAvailable() {}
+
+        @Override
+        public void onGpioEdgesDropped(int droppedCount) {}
+
+        @Override
+        public void onGpioError(int error) {}
+
+        @Override
+        public void run() {
+            pending.set(false);
+            // a drain thread at a time per trigger, the scratch buffer is shared.
+            synchronized(scratch) {
+                if (stopped)
+                    return;
+                int count;
+                try {
+                    count = i2c.readFifoInto(OdroidI2cFifo.this, scratch, scratch.capacity());
+                } catch (IllegalStateException e) {
+                    // the device is closed.
+                    return;
+                }
+                if (count < 0)
+                    countFailed(this);
+                else if (count > 0)
+                    stage(this, scratch, count);
+            }
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ *    Copyright (c) 2019 Sangchul Go <luke.go@hardkernel.com>
+ *
+ *    OdroidThings is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as
+ *    published by the Free Software Foundation, either version 3 of the
+ *    License, or (at your option) any later version.
+ *
+ *    OdroidThings is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with OdroidThings.
+ *    If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.google.android.things.odroid;
+
+import android.os.Process;
+import android.os.SystemClock;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads a register block of an i2c device at a fixed rate on a service
+ * thread and keeps the timestamped samples in a ring, oldest samples are
+ * overwritten when the client does not keep up. All pollers share a small
+ * scheduler pool, and a sample does not allocate.
+ * @hide
+ */
+public class OdroidI2cPoller implements Runnable {
+    private static final String TAG = "OdroidI2cPoller";
+    static final int MAX_RATE_HZ = 10000;
+    static final int MAX_SAMPLE_SIZE = 256;
+    static final int MAX_RING_SIZE = 1 << 20;
+
+    private static final int THREAD_COUNT = 2;
+    private static final ScheduledThreadPoolExecutor sPollers = new ScheduledThreadPoolExecutor(
+            THREAD_COUNT, new ThreadFactory() {
+                private int count = 0;
+                @Override
+                public synchronized Thread newThread(final Runnable r) {
+                    return new Thread(new Runnable() {
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+                            r.run();
+                        }
+                    }, TAG + "-" + count++);
+                }
+            });
+
+    private final OdroidI2c i2c;
+    private final int idx;
+    private final int reg;
+    private final int length;
+    private final int capacity;
+    private final long[] timestamps;
+    private final byte[] samples;
+    private final ByteBuffer scratch;
+
+    private final Object mLock = new Object();
+    private long writeCount;
+    private long readCount;
+    private long dropped;
+
+    // held while the bus is read, so stop() returns with no read in flight.
+    private final Object mReadLock = new Object();
+    private boolean stopped;
+    private final ScheduledFuture<?> future;
+
+    public OdroidI2cPoller(OdroidI2c i2c, int idx, int reg, int length, int rateHz, int capacity) {
+        if ((length <= 0) || (length > MAX_SAMPLE_SIZE))
+            throw new IllegalArgumentException("sample size should be 1 to " + MAX_SAMPLE_SIZE + " bytes");
+        if ((rateHz <= 0) || (rateHz > MAX_RATE_HZ))
+            throw new IllegalArgumentException("polling rate should be 1 to " + MAX_RATE_HZ + "Hz");
+        if ((capacity <= 0) || ((long)capacity * length > MAX_RING_SIZE))
+            throw new IllegalArgumentException("capacity should be 1 to " + (MAX_RING_SIZE / length) + " samples");
+
+        this.i2c = i2c;
+        this.idx = idx;
+        this.reg = reg;
+        this.length = length;
+        this.capacity = capacity;
+        timestamps = new long[capacity];
+        samples = new byte[capacity * length];
+        scratch = ByteBuffer.allocateDirect(length);
+
+        future = sPollers.scheduleAtFixedRate(this, 0, 1000000000L / rateHz, TimeUnit.NANOSECONDS);
+    }
+
+    public int getIdx() {
+        return idx;
+    }
+
+    public int getSampleSize() {
+        return length;
+    }
+
+    /**
+     * Samples lost to a full ring or to a failed read.
+     */
+    public long getDroppedCount() {
+        synchronized(mLock) {
+            return dropped;
+        }
+    }
+
+    @Override
+    public void run() {
+        long timestampNs;
+        synchronized(mReadLock) {
+            if (stopped)
+                return;
+            timestampNs = SystemClock.elapsedRealtimeNanos();
+            if (!i2c.readRegInto(reg, scratch, length)) {
+                synchronized(mLock) {
+                    dropped++;
+                }
+                return;
+            }
+        }
+
+        synchronized(mLock) {
+            if (writeCount - readCount == capacity) {
+                readCount++;
+                dropped++;
+            }
+            int slot = (int)(writeCount % capacity);
+            timestamps[slot] = timestampNs;
+            scratch.clear();
+            scratch.get(samples, slot * length, length);
+            writeCount++;
+        }
+    }
+
+    /**
+     * Moves the oldest samples out of the ring, sample i lands in
+     * timestampsNs[i] and data[i * sampleSize] onwards.
+     *
+     * @return number of samples copied.
+     */
+    public int read(long[] timestampsNs, byte[] data) {
+        synchronized(mLock) {
+            int count = (int)Math.min(writeCount - readCount,
+                    Math.min(timestampsNs.length, data.length / length));
+            for (int i=0; i<count; i++) {
+                int slot = (int)((readCount + i) % capacity);
+                timestampsNs[i] = timestamps[slot];
+                System.arraycopy(samples, slot * length, data, i * length, length);
+            }
+            readCount += count;
+            return count;
+        }
+    }
+
+    public void stop() {
+        future.cancel(false);
+        synchronized(mReadLock) {
+            stopped = true;
+        }
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ *    Copyright (c) 2019 Sangchul Go <luke.go@hardkernel.com>
+ *
+ *    OdroidThings is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as
+ *    published by the Free Software Foundation, either version 3 of the
+ *    License, or (at your option) any later version.
+ *
+ *    OdroidThings is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with OdroidThings.
+ *    If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.google.android.things.odroid;
+
+import com.google.android.things.pio.I2cDevice;
+
+import android.os.ParcelFileDescriptor;
+import android.os.Process;
+import android.util.Log;
+import android.util.SparseIntArray;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pumps a big register transfer between an i2c device and a pipe on a
+ * service thread, one chunk at a time. Each chunk takes the bus on its own,
+ * so other devices get their transfers in between, and only a chunk sized
+ * direct buffer is held however long the stream is. A read stream the
+ * client sees end early has failed.
+ *
+ * A pump blocks on its pipe whenever the client does not keep up, so
+ * every stream has its own thread rather than one of a shared pool, and
+ * the number of open streams is capped per device, per uid and for the
+ * whole service instead.
+ * @hide
+ */
+public class OdroidI2cStream implements Runnable {
+    private static final String TAG = "OdroidI2cStream";
+    static final int DEFAULT_CHUNK_SIZE = 256;
+    static final int MAX_STREAM_SIZE = 16 << 20;
+    // register addresses of the natives are 8 bit.
+    static final int REGISTERS = 256;
+
+    static final int MAX_OPEN_STREAMS = 16;
+    static final int MAX_UID_STREAMS = 8;
+    // open streams by uid and in total, guarded by sUidStreams.
+    private static final SparseIntArray sUidStreams = new SparseIntArray();
+    private static int sOpenStreams;
+    private static final AtomicInteger sThreadCount = new AtomicInteger();
+
+    private final OdroidI2c i2c;
+    private final int uid;
+    private final boolean isRead;
+    private final int reg;
+    private final int length;
+    private final int chunkSize;
+    private final boolean incrementReg;
+    private final ParcelFileDescriptor clientEnd;
+    private final ParcelFileDescriptor pumpEnd;
+
+    private final CountDownLatch done = new CountDownLatch(1);
+    private volatile boolean succeeded;
+    private final Thread pump;
+
+    /**
+     * @param chunkSize bytes per bus transfer, 0 picks the default.
+     * @param incrementReg each chunk goes to reg plus its offset in the
+     * stream, otherwise all chunks go to reg.
+     */
+    public OdroidI2cStream(OdroidI2c i2c, int uid, boolean isRead, int reg, int length,
+            int chunkSize, boolean incrementReg) {
+        if ((length <= 0) || (length > MAX_STREAM_SIZE))
+            throw new IllegalArgumentException("stream should be 1 to " + MAX_STREAM_SIZE + " bytes");
+        if (chunkSize == 0)
+            chunkSize = DEFAULT_CHUNK_SIZE;
+        if ((chunkSize < 0) || (chunkSize > I2cDevice.MAX_TRANSFER_SIZE))
+            throw new IllegalArgumentException("chunk size should be 1 to " + I2cDevice.MAX_TRANSFER_SIZE + " bytes");
+        if ((reg < 0) || (reg >= REGISTERS))
+            throw new IllegalArgumentException("register should be 0 to " + (REGISTERS - 1));
+        if (incrementReg && (reg + length > REGISTERS))
+            throw new IllegalArgumentException("incrementing stream should end within the " + REGISTERS + " registers");
+
+        this.i2c = i2c;
+        this.uid = uid;
+        this.isRead = isRead;
+        this.reg = reg;
+        this.length = length;
+        this.chunkSize = Math.min(chunkSize, length);
+        this.incrementReg = incrementReg;
+
+        reserve(uid);
+        ParcelFileDescriptor[] pipe;
+        try {
+            pipe = ParcelFileDescriptor.createPipe();
+        } catch (IOException e) {
+            release(uid);
+            throw new IllegalStateException("i2c stream pipe is not created");
+        }
+        // pipe[0] is the read side.
+        clientEnd = isRead ? pipe[0] : pipe[1];
+        pumpEnd = isRead ? pipe[1] : pipe[0];
+        pump = new Thread(this, TAG + "-" + sThreadCount.getAndIncrement());
+        pump.start();
+    }
+
+    private static void reserve(int uid) {
+        synchronized(sUidStreams) {
+            if (sOpenStreams >= MAX_OPEN_STREAMS)
+                throw new IllegalStateException(MAX_OPEN_STREAMS + " i2c streams are open already");
+            int count = sUidStreams.get(uid);
+            if (count >= MAX_UID_STREAMS)
+                throw new IllegalStateException("uid " + uid + " has " + MAX_UID_STREAMS + " i2c streams open already");
+            sUidStreams.put(uid, count + 1);
+            sOpenStreams++;
+        }
+    }
+
+    private static void release(int uid) {
+        synchronized(sUidStreams) {
+            int count = sUidStreams.get(uid) - 1;
+            if (count > 0)
+                sUidStreams.put(uid, count);
+            else
+                sUidStreams.delete(uid);
+            sOpenStreams--;
+        }
+    }
+
+    /**
+     * The end of the pipe handed to the client, binder closes the service's
+     * copy once it is written as a return value.
+     */
+    public ParcelFileDescriptor getClientEnd() {
+        return clientEnd;
+    }
+
+    public boolean isWrite() {
+        return !isRead;
+    }
+
+    public boolean isDone() {
+        return done.getCount() == 0;
+    }
+
+    @Override
+    public void run() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        boolean result = false;
+        ByteBuffer chunk = ByteBuffer.allocateDirect(chunkSize);
+        try {
+            if (isRead) {
+                try (FileOutputStream out = new ParcelFileDescriptor.AutoCloseOutputStream(pumpEnd)) {
+                    result = pumpRead(out.getChannel(), chunk);
+                }
+            } else {
+                try (FileInputStream in = new ParcelFileDescriptor.AutoCloseInputStream(pumpEnd)) {
+                    result = pumpWrite(in.getChannel(), chunk);
+                }
+            }
+        } catch (IOException e) {
+            // the client closed its end, or the stream was stopped.
+            Log.d(TAG, "i2c stream is closed, " + e.getMessage());
+        } catch (IllegalStateException e) {
+            Log.d(TAG, e.getMessage());
+        } finally {
+            finish(result);
+        }
+    }
+
+    private boolean pumpRead(FileChannel channel, ByteBuffer chunk) throws IOException {
+        for (int offset=0; offset<length; offset+=chunkSize) {
+            int size = Math.min(chunkSize, length - offset);
+            if (!i2c.readRegInto(regAt(offset), chunk, size))
+                return false;
+            chunk.clear();
+            chunk.limit(size);
+            while (chunk.hasRemaining())
+                channel.write(chunk);
+        }
+        return true;
+    }
+
+    private boolean pumpWrite(FileChannel channel, ByteBuffer chunk) throws IOException {
+        for (int offset=0; offset<length; offset+=chunkSize) {
+            int size = Math.min(chunkSize, length - offset);
+            chunk.clear();
+            chunk.limit(size);
+            while (chunk.hasRemaining()) {
+                if (channel.read(chunk) < 0)
+                    return false;
+            }
+            if (!i2c.writeRegFrom(regAt(offset), chunk, size))
+                return false;
+        }
+        return true;
+    }
+
+    private int regAt(int offset) {
+        return incrementReg ? reg + offset : reg;
+    }
+
+    private void finish(boolean result) {
+        succeeded = result;
+        release(uid);
+        done.countDown();
+    }
+
+    /**
+     * Waits up to timeoutMs for the pump to finish, a write stream finishes
+     * once the client closed its end or all bytes are written. On timeout
+     * or interrupt the pump is stopped.
+     *
+     * @return true if all bytes went over the bus in time.
+     */
+    public boolean await(long timeoutMs) {
+        boolean finished;
+        try {
+            finished = done.await(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            finished = false;
+        }
+        if (!finished) {
+            Log.d(TAG, "i2c stream is not finished in " + timeoutMs + "ms");
+            stop();
+            return false;
+        }
+        return succeeded;
+    }
+
+    /**
+     * Stops the pump, interrupting it if it is blocked on the pipe, which
+     * closes the pipe. The client end sees the stream end early.
+     */
+    public void stop() {
+        pump.interrupt();
+    }
+}
@@ -19,18 +19,32 @@
 package com.google.android.things.odroid;
 
 import com.google.android.things.pio.Gpio;
+import com.google.android.things.pio.GpioStats;
 import com.google.android.things.pio.IThingsManager;
 import com.google.android.things.pio.IGpioCallback;
 import com.google.android.things.pio.CallbackWrapper;
 
 import com.google.android.things.odroid.Pin;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
+import android.os.Binder;
+import android.os.Debug;
 import android.os.IBinder;
+import android.os.Parcel;
+import android.os.ParcelFileDescriptor;
+import android.os.Process;
+import android.os.RemoteException;
+import android.os.SharedMemory;
+import android.os.SystemClock;
 
 import android.app.ActivityManager;
 import android.app.ActivityManager.RunningAppProcessInfo;
@@ -52,15 +66,24 @@ public class OdroidThingsManager extends IThingsManager.Stub {
     }
 
     private static List<PinState> pinStateList;
+    // opened gpios by pin, read without locks by the native edge thread.
+    private static AtomicReferenceArray<OdroidGpio> gpioByPin;
+    // concurrent, binder threads open and close devices while others transfer.
     private static Map<Integer, I2cState> i2cStateList;
     private List<String> i2cList = null;
-    private static int i2cIdx = 0;
+    private static final AtomicInteger i2cIdx = new AtomicInteger();
+
+    private final Map<Integer, OdroidGpioSampler> samplers = new HashMap<>();
+    private int samplerIdx = 0;
+    private final Map<Integer, OdroidI2cPoller> pollers = new HashMap<>();
+    private int pollerIdx = 0;
 
     private ThingsClientManager clientManager;
+    private final BinderCallStats callStats = new BinderCallStats(IThingsManager.Stub.class);
 
     private void initPinStateList() {
         pinStateList = new ArrayList<PinState>();
-        i2cStateList = new HashMap<>();
+        i2cStateList = new ConcurrentHashMap<>();
         i2cList = _getListOf(PinMode.I2C);
 
         List<String> pinNames = _getPinName();
@@ -72,6 +95,7 @@ public class OdroidThingsManager extends IThingsManager.Stub {
             state.name = pinNames.get(i);
             pinStateList.add(state);
         }
+        gpioByPin = new AtomicReferenceArray<>(size);
     }
 
     public OdroidThingsManager () {
@@ -81,6 +105,40 @@ public class OdroidThingsManager extends IThingsManager.Stub {
         clientManager = new ThingsClientManager(this);
     }
 
+    @Override
+    public boolean onTransact(int code, Parcel data, Parcel reply, int flags) throws RemoteException {
+        if (!callStats.isTracked(code))
+            return super.onTransact(code, data, reply, flags);
+
+        // the thread cpu clock is the only per-call accumulator, everything
+        // else of a call is spent blocked on the bus, in locks or in the kernel.
+        long cpuStartNs = Debug.threadCpuTimeNanos();
+        long startNs = SystemClock.elapsedRealtimeNanos();
+        boolean failed = true;
+        try {
+            boolean result = super.onTransact(code, data, reply, flags);
+            failed = false;
+            return result;
+        } finally {
+            callStats.record(Binder.getCallingUid(), code,
+                    SystemClock.elapsedRealtimeNanos() - startNs,
+                    Debug.threadCpuTimeNanos() - cpuStartNs, failed);
+        }
+    }
+
+    private static boolean isPrivileged(int uid) {
+        return (uid == Process.SYSTEM_UID) || (uid == Process.SHELL_UID) || (uid == Process.ROOT_UID);
+    }
+
+    /**
+     * Binder call stats, see {@link BinderCallStats#RECORD_SIZE} for the layout.
+     * Other apps only see their own calls.
+     */
+    public long[] getCallStats() {
+        int uid = Binder.getCallingUid();
+        return callStats.toArray(isPrivileged(uid) ? -1 : uid);
+    }
+
     @Override
     public int registNgetId(IBinder listener) {
         return clientManager.create(listener);
@@ -142,6 +200,10 @@ public class OdroidThingsManager extends IThingsManager.Stub {
         if(pin.pin == null)
             return false;
 
+        stopSamplersOf(idx);
+        if (pin.pin instanceof OdroidGpio)
+            gpioByPin.set(idx, null);
+
         pin.pin.close();
         pin.pin = null;
         return true;
@@ -155,7 +217,9 @@ public class OdroidThingsManager extends IThingsManager.Stub {
         return getPinNumBy(name, new InitCallback() {
             @Override
             public Pin initPinBy(int idx) {
-                return new OdroidGpio(idx);
+                OdroidGpio gpio = new OdroidGpio(idx);
+                gpioByPin.set(idx, gpio);
+                return gpio;
             }
         });
     }
@@ -179,6 +243,21 @@ public class OdroidThingsManager extends IThingsManager.Stub {
         return gpio.getValue();
     }
 
+    public void playGpioWaveform(int pin, long[] durationsNs, boolean initialLevel) {
+        OdroidGpio gpio = (OdroidGpio)pinStateList.get(pin).pin;
+        gpio.playWaveform(durationsNs, initialLevel);
+    }
+
+    public void cancelGpioWaveform(int pin) {
+        OdroidGpio gpio = (OdroidGpio)pinStateList.get(pin).pin;
+        gpio.cancelWaveform();
+    }
+
+    public boolean isGpioWaveformPlaying(int pin) {
+        OdroidGpio gpio = (OdroidGpio)pinStateList.get(pin).pin;
+        return gpio.isWaveformPlaying();
+    }
+
     public void setGpioActiveType(int pin, int activeType) {
         OdroidGpio gpio = (OdroidGpio)pinStateList.get(pin).pin;
         gpio.setActiveType(activeType);
@@ -189,10 +268,123 @@ public class OdroidThingsManager extends IThingsManager.Stub {
         gpio.setEdgeTriggerType(edgeTriggerType);
     }
 
+    public void setGpioValues(int[] pins, long mask, long bits) {
+        long activeLowMask = getActiveLowMaskOf(pins);
+        OdroidGpio.setValues(pins, mask, bits, activeLowMask);
+    }
+
+    public long getGpioValues(int[] pins) {
+        long activeLowMask = getActiveLowMaskOf(pins);
+        return OdroidGpio.getValues(pins, activeLowMask);
+    }
+
+    public int startGpioSampler(int[] pins, int rateHz, int capacity) {
+        long activeLowMask = getActiveLowMaskOf(pins);
+        OdroidGpioSampler sampler = new OdroidGpioSampler(pins, activeLowMask, rateHz, capacity);
+        synchronized(samplers) {
+            int id = samplerIdx++;
+            samplers.put(id, sampler);
+            return id;
+        }
+    }
+
+    public int readGpioSamples(int samplerId, byte[] packed) {
+        OdroidGpioSampler sampler;
+        synchronized(samplers) {
+            sampler = samplers.get(samplerId);
+        }
+        if (sampler == null)
+            return 0;
+        return sampler.read(packed);
+    }
+
+    public long getGpioSamplerDropped(int samplerId) {
+        OdroidGpioSampler sampler;
+        synchronized(samplers) {
+            sampler = samplers.get(samplerId);
+        }
+        if (sampler == null)
+            return 0;
+        return sampler.getDroppedCount();
+    }
+
+    public void stopGpioSampler(int samplerId) {
+        OdroidGpioSampler sampler;
+        synchronized(samplers) {
+            sampler = samplers.remove(samplerId);
+        }
+        if (sampler != null)
+            sampler.stop();
+    }
+
+    private void stopSamplersOf(int pin) {
+        List<OdroidGpioSampler> stopped = new ArrayList<>();
+        synchronized(samplers) {
+            samplers.values().removeIf((sampler) -> {
+                for (int samplerPin: sampler.getPins()) {
+                    if (samplerPin == pin) {
+                        stopped.add(sampler);
+                        return true;
+                    }
+                }
+                return false;
+            });
+        }
+        for (OdroidGpioSampler sampler: stopped)
+            sampler.stop();
+    }
+
+    private long getActiveLowMaskOf(int[] pins) {
+        if (pins.length > Long.SIZE)
+            throw new IllegalArgumentException("gpio bank is limited to " + Long.SIZE + " pins");
+
+        long activeLowMask = 0;
+        for (int i=0; i<pins.length; i++) {
+            Pin pin = pinStateList.get(pins[i]).pin;
+            if (!(pin instanceof OdroidGpio))
+                throw new IllegalArgumentException("gpio(" + pins[i] + ") is not opened");
+            if (((OdroidGpio)pin).isActiveLow())
+                activeLowMask |= 1L << i;
+        }
+        return activeLowMask;
+    }
+
+    public void setGpioEdgeBatching(int pin, int maxBatchSize, int maxLatencyMs) {
+        OdroidGpio gpio = (OdroidGpio)pinStateList.get(pin).pin;
+        gpio.setEdgeBatching(maxBatchSize, maxLatencyMs);
+    }
+
+    public void setGpioDispatchQueue(int pin, int capacity, int overflowPolicy) {
+        OdroidGpio gpio = (OdroidGpio)pinStateList.get(pin).pin;
+        gpio.setDispatchQueue(capacity, overflowPolicy);
+    }
+
+    public void setGpioDebounce(int pin, int debounceMs) {
+        OdroidGpio gpio = (OdroidGpio)pinStateList.get(pin).pin;
+        gpio.setDebounce(debounceMs);
+    }
+
+    public void setGpioEdgeCoalescing(int pin, boolean enabled) {
+        OdroidGpio gpio = (OdroidGpio)pinStateList.get(pin).pin;
+        gpio.setEdgeCoalescing(enabled);
+    }
+
     @Override
     public void registerGpioCallback(int pin, IGpioCallback callback) {
         OdroidGpio gpio = (OdroidGpio)pinStateList.get(pin).pin;
-        gpio.registerCallback(callback);
+        gpio.registerCallback(callback, Gpio.EDGE_BOTH);
+    }
+
+    @Override
+    public void registerGpioEdgeCallback(int pin, IGpioCallback callback, int edgeType) {
+        OdroidGpio gpio = (OdroidGpio)pinStateList.get(pin).pin;
+        gpio.registerCallback(callback, edgeType);
+    }
+
+    @Override
+    public SharedMemory registerGpioRingCallback(int pin, IGpioCallback callback, int capacity) {
+        OdroidGpio gpio = (OdroidGpio)pinStateList.get(pin).pin;
+        return gpio.registerRingCallback(callback, capacity);
     }
 
     @Override
@@ -202,9 +394,22 @@ public class OdroidThingsManager extends IThingsManager.Stub {
             gpio.unregisterCallback(callback);
     }
 
-    public static void doCallback(int pin) {
+    public long[] getGpioStats(int pin) {
+        OdroidGpio gpio = (OdroidGpio)pinStateList.get(pin).pin;
+        return gpio.getStats();
+    }
+
+    public void resetGpioStats(int pin) {
         OdroidGpio gpio = (OdroidGpio)pinStateList.get(pin).pin;
-        gpio.doCallback();
+        gpio.resetStats();
+    }
+
+    public static void doCallback(int pin) {
+        // called from the native edge thread, take the timestamp before anything else.
+        long timestampNs = SystemClock.elapsedRealtimeNanos();
+        OdroidGpio gpio = gpioByPin.get(pin);
+        if (gpio != null)
+            gpio.doCallback(timestampNs);
     }
 
     // pwm
@@ -250,70 +455,248 @@ public class OdroidThingsManager extends IThingsManager.Stub {
         state.name = name;
         state.address = address;
         int listIdx = i2cList.indexOf(name);
-        int idx = i2cIdx++;
-        state.pin = new OdroidI2c(name, listIdx, address, idx);
+        int idx = i2cIdx.getAndIncrement();
+        state.pin = new OdroidI2c(name, listIdx, address, idx, Binder.getCallingUid());
 
         i2cStateList.put(idx, state);
         return idx;
     }
 
     public boolean closeI2cBy(int idx) {
-        I2cState i2c = i2cStateList.get(idx);
+        // removed first, so a concurrent close of the same device is a no-op.
+        I2cState i2c = i2cStateList.remove(idx);
         if (i2c == null)
             return false;
 
+        stopPollersOf(idx);
         i2c.pin.close();
-        i2c.pin = null;
-        i2c = null;
-        i2cStateList.remove(idx);
         return true;
     }
 
+    private OdroidI2c i2cOf(int idx) {
+        I2cState state = i2cStateList.get(idx);
+        if (state == null)
+            throw new IllegalArgumentException("i2c(" + idx + ") is not opened");
+        return (OdroidI2c)state.pin;
+    }
+
     public boolean closeI2c(int idx) {
         return closeI2cBy(idx);
     }
 
     public byte[] readI2c(int idx, int length) {
-        OdroidI2c i2c = (OdroidI2c)i2cStateList.get(idx).pin;
+        OdroidI2c i2c = i2cOf(idx);
         return i2c.read(length);
     }
 
     public byte[] readI2cRegBuffer(int idx, int reg, int length) {
-        OdroidI2c i2c = (OdroidI2c)i2cStateList.get(idx).pin;
+        OdroidI2c i2c = i2cOf(idx);
         return i2c.readRegBuffer(reg, length);
     }
 
     public byte readI2cRegByte(int idx, int reg) {
-        OdroidI2c i2c = (OdroidI2c)i2cStateList.get(idx).pin;
+        OdroidI2c i2c = i2cOf(idx);
         return i2c.readRegByte(reg);
     }
 
     public int readI2cRegWord(int idx, int reg) {
-        OdroidI2c i2c = (OdroidI2c)i2cStateList.get(idx).pin;
+        OdroidI2c i2c = i2cOf(idx);
         return (int)i2c.readRegWord(reg);
     }
 
     public boolean writeI2c(int idx, byte[] buffer, int length) {
-        OdroidI2c i2c = (OdroidI2c)i2cStateList.get(idx).pin;
+        OdroidI2c i2c = i2cOf(idx);
         return i2c.write(buffer, length);
     }
 
     public boolean writeI2cRegBuffer(int idx, int reg, byte[] buffer, int length) {
-        OdroidI2c i2c = (OdroidI2c)i2cStateList.get(idx).pin;
+        OdroidI2c i2c = i2cOf(idx);
         return i2c.writeRegBuffer(reg, buffer, length);
     }
 
     public boolean writeI2cRegByte(int idx, int reg, byte data) {
-        OdroidI2c i2c = (OdroidI2c)i2cStateList.get(idx).pin;
+        OdroidI2c i2c = i2cOf(idx);
         return i2c.writeRegByte(reg, data);
     }
 
     public boolean writeI2cRegWord(int idx, int reg, int data) {
-        OdroidI2c i2c = (OdroidI2c)i2cStateList.get(idx).pin;
+        OdroidI2c i2c = i2cOf(idx);
         return i2c.writeRegWord(reg, (short)data);
     }
 
+    public byte[] transactI2c(int idx, boolean[] reads, int[] lengths, byte[] writeData) {
+        OdroidI2c i2c = i2cOf(idx);
+        return i2c.transact(reads, lengths, writeData);
+    }
+
+    public boolean updateI2cRegBits(int idx, int reg, int mask, int value) {
+        return i2cOf(idx).updateRegBits(reg, mask, value);
+    }
+
+    public boolean updateI2cRegWordBits(int idx, int reg, int mask, int value) {
+        return i2cOf(idx).updateRegWordBits(reg, mask, value);
+    }
+
+    public boolean updateI2cRegsBits(int idx, int[] regs, int[] masks, int[] values) {
+        return i2cOf(idx).updateRegsBits(regs, masks, values);
+    }
+
+    public byte[] readI2cEeprom(int idx, int address, int addressWidth, int length) {
+        OdroidI2c i2c = i2cOf(idx);
+        return OdroidI2cEeprom.read(i2c, address, addressWidth, length);
+    }
+
+    public boolean writeI2cEeprom(int idx, int address, int addressWidth, int pageSize, byte[] data) {
+        OdroidI2c i2c = i2cOf(idx);
+        return OdroidI2cEeprom.write(i2c, address, addressWidth, pageSize, data);
+    }
+
+    public void setI2cFifo(int idx, int levelReg, int levelFormat, int levelMask, int levelUnit, int dataReg, int sampleSize) {
+        OdroidI2c i2c = i2cOf(idx);
+        i2c.setFifo(levelReg, levelFormat, levelMask, levelUnit, dataReg, sampleSize);
+    }
+
+    public void setI2cFifoTrigger(int idx, int pin, int edgeType, int capacity) {
+        OdroidI2c i2c = i2cOf(idx);
+        OdroidGpio gpio = null;
+        if (pin >= 0) {
+            gpio = (pin < gpioByPin.length()) ? gpioByPin.get(pin) : null;
+            if (gpio == null)
+                throw new IllegalArgumentException("gpio(" + pin + ") is not opened");
+        }
+        i2c.setFifoTrigger(gpio, edgeType, capacity);
+    }
+
+    public int drainI2cFifo(int idx, int maxBytes, int timeoutMs) {
+        OdroidI2c i2c = i2cOf(idx);
+        return i2c.drainFifo(maxBytes, timeoutMs);
+    }
+
+    public long getI2cFifoDropped(int idx) {
+        OdroidI2c i2c = i2cOf(idx);
+        return i2c.getFifoDroppedCount();
+    }
+
+    public long getI2cFifoFailedDrains(int idx) {
+        OdroidI2c i2c = i2cOf(idx);
+        return i2c.getFifoFailedDrainCount();
+    }
+
+    public int getI2cFifoStatus(int idx) {
+        OdroidI2c i2c = i2cOf(idx);
+        return i2c.getFifoStatus();
+    }
+
+    public void setI2cPriority(int idx, int priority) {
+        OdroidI2c i2c = i2cOf(idx);
+        i2c.setPriority(priority);
+    }
+
+    public int startI2cPolling(int idx, int reg, int length, int rateHz, int capacity) {
+        OdroidI2c i2c = i2cOf(idx);
+        OdroidI2cPoller poller = new OdroidI2cPoller(i2c, idx, reg, length, rateHz, capacity);
+        synchronized(pollers) {
+            int id = pollerIdx++;
+            pollers.put(id, poller);
+            return id;
+        }
+    }
+
+    public int readI2cPolled(int jobId, long[] timestampsNs, byte[] data) {
+        OdroidI2cPoller poller;
+        synchronized(pollers) {
+            poller = pollers.get(jobId);
+        }
+        if (poller == null)
+            return 0;
+        return poller.read(timestampsNs, data);
+    }
+
+    public long getI2cPollingDropped(int jobId) {
+        OdroidI2cPoller poller;
+        synchronized(pollers) {
+            poller = pollers.get(jobId);
+        }
+        if (poller == null)
+            return 0;
+        return poller.getDroppedCount();
+    }
+
+    public void stopI2cPolling(int jobId) {
+        OdroidI2cPoller poller;
+        synchronized(pollers) {
+            poller = pollers.remove(jobId);
+        }
+        if (poller != null)
+            poller.stop();
+    }
+
+    private void stopPollersOf(int idx) {
+        List<OdroidI2cPoller> stopped = new ArrayList<>();
+        synchronized(pollers) {
+            pollers.values().removeIf((poller) -> {
+                if (poller.getIdx() != idx)
+                    return false;
+                stopped.add(poller);
+                return true;
+            });
+        }
+        for (OdroidI2cPoller poller: stopped)
+            poller.stop();
+    }
+
+    public SharedMemory getI2cTransferRegion(int idx, int size) {
+        OdroidI2c i2c = i2cOf(idx);
+        return i2c.getTransferRegion(size);
+    }
+
+    public boolean readI2cTransfer(int idx, int reg, int length) {
+        OdroidI2c i2c = i2cOf(idx);
+        return i2c.readRegTransfer(reg, length);
+    }
+
+    public boolean writeI2cTransfer(int idx, int reg, int length) {
+        OdroidI2c i2c = i2cOf(idx);
+        return i2c.writeRegTransfer(reg, length);
+    }
+
+    public ParcelFileDescriptor openI2cReadStream(int idx, int reg, int length, int chunkSize, boolean incrementReg) {
+        OdroidI2c i2c = i2cOf(idx);
+        return i2c.openReadStream(reg, length, chunkSize, incrementReg);
+    }
+
+    public ParcelFileDescriptor openI2cWriteStream(int idx, int reg, int length, int chunkSize, boolean incrementReg) {
+        OdroidI2c i2c = i2cOf(idx);
+        return i2c.openWriteStream(reg, length, chunkSize, incrementReg);
+    }
+
+    public boolean finishI2cWriteStream(int idx) {
+        OdroidI2c i2c = i2cOf(idx);
+        return i2c.finishWriteStream();
+    }
+
     private native void _init();
     private native ArrayList<String> _getListOf(int mode);
     private native ArrayList<String> _getPinName();
+
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        int uid = Binder.getCallingUid();
+        if (!isPrivileged(uid)) {
+            pw.println("Permission Denial: can't dump things service from uid " + uid);
+            return;
+        }
+
+        pw.println("gpio edge stats:");
+        for (int i=0; i<pinStateList.size(); i++) {
+            PinState state = pinStateList.get(i);
+            Pin pin = state.pin;
+            if (pin instanceof OdroidGpio)
+                GpioEdgeStats.dump(pw, state.name + "(" + i + ")",
+                        new GpioStats(((OdroidGpio)pin).getStats()));
+        }
+
+        pw.println("binder calls:");
+        callStats.dump(pw);
+    }
 }
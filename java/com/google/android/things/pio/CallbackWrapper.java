@@ -24,11 +24,21 @@ import com.google.android.things.pio.IGpioCallback;
 import com.google.android.things.pio.IThingsManager;
 
 import com.google.android.things.pio.util.CallbackHandlerExecutor;
+import com.google.android.things.pio.util.DispatcherThreadExecutor;
+import com.google.android.things.pio.util.EdgeRingBuffer;
 
 import android.util.Log;
 import android.os.Handler;
+import android.os.SharedMemory;
+import android.system.ErrnoException;
 
 import android.os.RemoteException;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 public class CallbackWrapper extends IGpioCallback.Stub {
     public int pin;
     public GpioCallback callback;
@@ -38,7 +48,59 @@ public class CallbackWrapper extends IGpioCallback.Stub {
     private IGpioCallback self;
     private static class Lock{}
     private Lock mLock = new Lock();
-    public CallbackHandlerExecutor executor;
+    public volatile Executor executor;
+    public volatile boolean coalesce;
+    private final AtomicBoolean edgePending = new AtomicBoolean();
+
+    // notices that did not fit the executor when they came in, handed over
+    // after the next delivery that does.
+    private final AtomicInteger pendingDropped = new AtomicInteger();
+    private final AtomicBoolean errorPending = new AtomicBoolean();
+    private volatile int pendingError;
+    private final AtomicBoolean drainPending = new AtomicBoolean();
+    private final AtomicBoolean droppedQueued = new AtomicBoolean();
+    private final AtomicBoolean errorQueued = new AtomicBoolean();
+
+    private static final int RING_DRAIN_BATCH = 256;
+    private SharedMemory ringMemory;
+    private ByteBuffer ringMapping;
+    private EdgeRingBuffer ring;
+    private long[] ringTimestamps;
+    private boolean[] ringLevels;
+    private int ringDropped;
+
+    // preallocated, so that delivering an edge does not allocate.
+    private final Runnable mEdge = new Runnable() {
+        public void run() {
+            edgePending.set(false);
+            synchronized(mLock) {
+                if (callback != null)
+                    handleResult(callback.onGpioEdge(gpio));
+            }
+            deliverPending();
+        }
+    };
+
+    private final Runnable mDrain = new Runnable() {
+        public void run() {
+            deliverPending();
+            drainRing();
+        }
+    };
+
+    private final Runnable mDropped = new Runnable() {
+        public void run() {
+            droppedQueued.set(false);
+            deliverPending();
+        }
+    };
+
+    private final Runnable mError = new Runnable() {
+        public void run() {
+            errorQueued.set(false);
+            deliverPending();
+        }
+    };
 
     public CallbackWrapper(int pin, IThingsManager manager, Gpio gpio) {
         this.pin = pin;
@@ -48,35 +110,170 @@ public class CallbackWrapper extends IGpioCallback.Stub {
     }
 
     public void setHandler(Handler handler) {
-        executor = new CallbackHandlerExecutor(handler);
-        executor.setRunnable(new Runnable() {
+        setExecutor(new CallbackHandlerExecutor(handler));
+    }
+
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    public void setRing(SharedMemory memory) throws ErrnoException {
+        synchronized(mLock) {
+            releaseRing();
+            ringMapping = memory.mapReadWrite();
+            ringMemory = memory;
+            ring = new EdgeRingBuffer(ringMapping);
+
+            int batch = Math.min(ring.getCapacity(), RING_DRAIN_BATCH);
+            ringTimestamps = new long[batch];
+            ringLevels = new boolean[batch];
+            ringDropped = 0;
+        }
+    }
+
+    public void releaseRing() {
+        synchronized(mLock) {
+            if (ring == null)
+                return;
+            ring = null;
+            SharedMemory.unmap(ringMapping);
+            ringMapping = null;
+            ringMemory.close();
+            ringMemory = null;
+        }
+    }
+
+    private void drainRing() {
+        synchronized(mLock) {
+            int count;
+            while ((callback != null) && (ring != null) &&
+                    ((count = ring.drain(ringTimestamps, ringLevels)) > 0)) {
+                int dropped = ring.getDroppedCount();
+                int newlyDropped = dropped - ringDropped;
+                ringDropped = dropped;
+                handleResult(callback.onGpioEdges(gpio, ringTimestamps, ringLevels,
+                            count, newlyDropped));
+            }
+        }
+    }
+
+    /**
+     * Runs on the executor and hands over the drop counts, the latest error
+     * and the ring drain that are still pending.
+     */
+    private void deliverPending() {
+        if ((pendingDropped.get() == 0) && !errorPending.get() && !drainPending.get())
+            return;
+        int dropped = pendingDropped.getAndSet(0);
+        synchronized(mLock) {
+            if (callback != null) {
+                if (dropped > 0)
+                    callback.onGpioEdgesDropped(gpio, dropped);
+                if (errorPending.getAndSet(false))
+                    callback.onGpioError(gpio, pendingError);
+            }
+        }
+        if (drainPending.getAndSet(false))
+            drainRing();
+    }
+
+    private void handleResult(boolean result) {
+        if (result == false) {
+            try {
+                manager.unregisterGpioCallback(pin, self);
+                callback = null;
+                executor = null;
+                releaseRing();
+            } catch (RemoteException e) {
+                Log.d("GPIO_CALLBACK", "things manager is not exist");
+            }
+        }
+    }
+
+    /**
+     * Hands command to the executor without throwing on the binder thread.
+     *
+     * @return false if the executor had no room for it.
+     */
+    private static boolean dispatch(Executor executor, Runnable command) {
+        if (executor instanceof DispatcherThreadExecutor)
+            return ((DispatcherThreadExecutor)executor).offer(command);
+        try {
+            executor.execute(command);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void onGpioEdge() {
+        Executor executor = this.executor;
+        if (executor == null)
+            return;
+        if (coalesce && edgePending.getAndSet(true))
+            return;
+        if (!dispatch(executor, mEdge)) {
+            edgePending.set(false);
+            reportDropped(executor, 1);
+        }
+    }
+
+    @Override
+    public void onGpioEdges(final long[] timestampsNs, final boolean[] levels, final int droppedCount) {
+        Executor executor = this.executor;
+        if (executor == null)
+            return;
+        boolean queued = dispatch(executor, new Runnable() {
             public void run() {
                 synchronized(mLock) {
-                    if (callback != null) {
-                        boolean result = callback.onGpioEdge(gpio);
-
-                        if (result == false) {
-                            try {
-                                manager.unregisterGpioCallback(pin, self);
-                                callback = null;
-                                executor = null;
-                            } catch (RemoteException e) {
-                                Log.d("GPIO_CALLBACK", "things manager is not exist");
-                            }
-                        }
-                    }
+                    if (callback != null)
+                        handleResult(callback.onGpioEdges(gpio, timestampsNs, levels,
+                                    timestampsNs.length, droppedCount));
                 }
+                deliverPending();
             }
         });
+        if (!queued)
+            reportDropped(executor, timestampsNs.length + droppedCount);
     }
 
     @Override
-    public void onGpioEdge() {
-        executor.execute();
+    public void onGpioEdgesAvailable() {
+        Executor executor = this.executor;
+        if (executor == null)
+            return;
+        // the service only wakes an empty ring up, so a drain that does not
+        // fit the executor is kept for the next delivery instead of being lost.
+        if (!dispatch(executor, mDrain))
+            drainPending.set(true);
+    }
+
+    @Override
+    public void onGpioEdgesDropped(int droppedCount) {
+        Executor executor = this.executor;
+        if (executor != null)
+            reportDropped(executor, droppedCount);
+    }
+
+    /**
+     * Adds to the pending drop count, at most one notice is queued at a time.
+     */
+    private void reportDropped(Executor executor, int droppedCount) {
+        pendingDropped.addAndGet(droppedCount);
+        if (!droppedQueued.getAndSet(true) && !dispatch(executor, mDropped))
+            droppedQueued.set(false);
     }
 
     @Override
     public void onGpioError(int error) {
-        callback.onGpioError(gpio, error);
+        Executor executor = this.executor;
+        if (executor == null)
+            return;
+        // errors coalesce to the latest one.
+        pendingError = error;
+        errorPending.set(true);
+        if (!errorQueued.getAndSet(true) && !dispatch(executor, mError))
+            errorQueued.set(false);
     }
 }
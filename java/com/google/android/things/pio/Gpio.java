@@ -22,6 +22,7 @@ import android.os.Handler;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.concurrent.Executor;
 
 public interface Gpio extends Closeable {
     public static final int ACTIVE_HIGH = 1;
@@ -36,14 +37,32 @@ public interface Gpio extends Closeable {
     public static final int EDGE_FALLING = 2;
     public static final int EDGE_BOTH = 3;
 
+    public static final int OVERFLOW_DROP_OLDEST = 0;
+    public static final int OVERFLOW_DROP_NEWEST = 1;
+    public static final int OVERFLOW_COALESCE = 2;
+
     public abstract void close() throws IOException;
     public String getName();
     public abstract boolean getValue() throws IOException;
     public void registerGpioCallback(GpioCallback callback) throws IOException;
     public abstract void registerGpioCallback(Handler handler, GpioCallback callback) throws IOException;
+    public abstract void registerGpioCallback(Handler handler, GpioCallback callback, int edgeType) throws IllegalArgumentException, IOException;
+    public abstract void registerGpioCallback(Executor executor, GpioCallback callback) throws IOException;
+    public abstract void registerGpioRingCallback(Handler handler, GpioCallback callback, int capacity) throws IOException;
+    public abstract void setDispatchQueue(int capacity, int overflowPolicy) throws IllegalArgumentException, IOException;
+    public abstract void setDebounceWindow(int debounceMs) throws IllegalArgumentException, IOException;
+    public abstract void setEdgeCoalescing(boolean enabled) throws IOException;
     public abstract void setActiveType(int activeType) throws IllegalArgumentException, IOException;
     public abstract void setDirection(int direction) throws IllegalArgumentException, IOException;
     public abstract void setEdgeTriggerType(int edgeTriggerType) throws IllegalArgumentException, IOException;
+    public abstract void setEdgeBatching(int maxBatchSize, int maxLatencyMs) throws IllegalArgumentException, IOException;
     public abstract void setValue(boolean value) throws IOException;
+    public abstract void playWaveform(long[] durationsNs, boolean initialLevel) throws IllegalArgumentException, IOException;
+    public abstract void cancelWaveform() throws IOException;
+    public abstract boolean isWaveformPlaying() throws IOException;
+    public abstract GpioStats getStats() throws IOException;
+    public abstract void resetStats() throws IOException;
     public abstract void unregisterGpioCallback(GpioCallback callback);
+    public void setWriteCacheEnabled(boolean enabled);
+    public void invalidateWriteCache();
 }
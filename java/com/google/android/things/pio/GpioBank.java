@@ -0,0 +1,42 @@
+/*
+ *    Copyright (c) 2019 Sangchul Go <luke.go@hardkernel.com>
+ *
+ *    OdroidThings is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as
+ *    published by the Free Software Foundation, either version 3 of the
+ *    License, or (at your option) any later version.
+ *
+ *    OdroidThings is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with OdroidThings.
+ *    If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.google.android.things.pio;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import java.util.List;
+
+/**
+ * A group of gpio pins that is read and written as a single port.
+ * Bit n of the values corresponds to the n-th pin passed to
+ * {@link PeripheralManager#openGpioBank(String...)}.
+ */
+public interface GpioBank extends Closeable {
+    public static final int MAX_PINS = 64;
+
+    public abstract void close() throws IOException;
+    public List<String> getNames();
+    public int size();
+    public abstract long getValues() throws IOException;
+    public abstract GpioSampler createSampler(int rateHz, int capacity) throws IllegalArgumentException, IOException;
+    public abstract void setActiveType(int activeType) throws IllegalArgumentException, IOException;
+    public abstract void setDirection(int direction) throws IllegalArgumentException, IOException;
+    public abstract void setValues(long mask, long bits) throws IOException;
+}
@@ -21,4 +21,31 @@ package com.google.android.things.pio;
 public interface GpioCallback {
     public abstract boolean onGpioEdge(Gpio gpio);
     public void onGpioError(Gpio gpio, int error);
+
+    /**
+     * Called when edges were lost before they could be delivered, e.g. to a
+     * full dispatch queue. The default implementation ignores them.
+     *
+     * @param droppedCount edges lost since the previous report.
+     */
+    default public void onGpioEdgesDropped(Gpio gpio, int droppedCount) {}
+
+    /**
+     * Called with a batch of edges when edge batching is enabled by
+     * {@link Gpio#setEdgeBatching(int, int)}. Timestamps are in the
+     * {@link android.os.SystemClock#elapsedRealtimeNanos()} time base.
+     * The default implementation calls {@link #onGpioEdge(Gpio)} for each edge.
+     *
+     * @param count number of valid entries in timestampsNs and levels.
+     * @param droppedCount edges lost since the previous batch.
+     * @return false to unregister this callback.
+     */
+    default public boolean onGpioEdges(Gpio gpio, long[] timestampsNs, boolean[] levels,
+            int count, int droppedCount) {
+        for (int i=0; i<count; i++) {
+            if (onGpioEdge(gpio) == false)
+                return false;
+        }
+        return true;
+    }
 }
@@ -0,0 +1,36 @@
+/*
+ *    Copyright (c) 2019 Sangchul Go <luke.go@hardkernel.com>
+ *
+ *    OdroidThings is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as
+ *    published by the Free Software Foundation, either version 3 of the
+ *    License, or (at your option) any later version.
+ *
+ *    OdroidThings is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with OdroidThings.
+ *    If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.google.android.things.pio;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Periodic sampler of the pins of a {@link GpioBank}, running in the things
+ * service. Samples are taken at a fixed rate and fetched in bulk, bit n of
+ * sample i is stored at bit (i * pinCount + n) of the buffer passed to
+ * {@link #read(byte[])}, least significant bit of each byte first.
+ */
+public interface GpioSampler extends Closeable {
+    public abstract void close() throws IOException;
+    public int getPinCount();
+    public int getRateHz();
+    public abstract int read(byte[] packed) throws IOException;
+    public abstract long getDroppedCount() throws IOException;
+}
@@ -0,0 +1,130 @@
+/*
+ *    Copyright (c) 2019 Sangchul Go <luke.go@hardkernel.com>
+ *
+ *    OdroidThings is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as
+ *    published by the Free Software Foundation, either version 3 of the
+ *    License, or (at your option) any later version.
+ *
+ *    OdroidThings is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with OdroidThings.
+ *    If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.google.android.things.pio;
+
+import java.util.Arrays;
+
+/**
+ * Snapshot of the edge statistics the things service keeps for a gpio pin.
+ * Latencies are kept in log2 buckets of microseconds: bucket 0 holds values
+ * below 1us and bucket i values in [2^(i-1), 2^i) us, the last bucket also
+ * holds everything above.
+ * The dispatch latency runs from the edge interrupt to the moment the service
+ * hands the edge to the listeners, so it includes debounce, coalescing and
+ * queueing delays; batched edges are measured as they enter the batch.
+ * The delivery time is what the service spends handing an
+ * edge to all listeners.
+ */
+public final class GpioStats {
+    public static final int HISTOGRAM_BUCKETS = 24;
+
+    // layout of the array passed over binder.
+    private static final int LISTENERS = 0;
+    private static final int SEEN = 1;
+    private static final int SUPPRESSED = 2;
+    private static final int DELIVERED = 3;
+    private static final int DROPPED = 4;
+    private static final int FAILED = 5;
+    private static final int DISPATCH_LATENCY = 6;
+    private static final int DELIVERY_TIME = DISPATCH_LATENCY + HISTOGRAM_BUCKETS;
+    public static final int SIZE = DELIVERY_TIME + HISTOGRAM_BUCKETS;
+
+    private final long[] stats;
+
+    public GpioStats(long[] stats) {
+        if ((stats == null) || (stats.length != SIZE))
+            throw new IllegalArgumentException("gpio stats should have " + SIZE + " entries");
+        this.stats = stats;
+    }
+
+    public int getListenerCount() {
+        return (int)stats[LISTENERS];
+    }
+
+    /**
+     * Edges reported by the pin interrupt.
+     */
+    public long getEdgesSeen() {
+        return stats[SEEN];
+    }
+
+    /**
+     * Edges merged away by debounce or coalescing.
+     */
+    public long getEdgesSuppressed() {
+        return stats[SUPPRESSED];
+    }
+
+    /**
+     * Edges handed to listeners, counted once for each listener.
+     */
+    public long getEdgesDelivered() {
+        return stats[DELIVERED];
+    }
+
+    /**
+     * Edges lost to a full dispatch queue, edge batch or edge ring.
+     */
+    public long getEdgesDropped() {
+        return stats[DROPPED];
+    }
+
+    /**
+     * Callbacks that failed because the listener is gone.
+     */
+    public long getDeliveryFailures() {
+        return stats[FAILED];
+    }
+
+    public long[] getDispatchLatencyHistogram() {
+        return Arrays.copyOfRange(stats, DISPATCH_LATENCY, DISPATCH_LATENCY + HISTOGRAM_BUCKETS);
+    }
+
+    public long[] getDeliveryTimeHistogram() {
+        return Arrays.copyOfRange(stats, DELIVERY_TIME, DELIVERY_TIME + HISTOGRAM_BUCKETS);
+    }
+
+    /**
+     * Upper bound in microseconds of the given histogram bucket.
+     */
+    public static long getBucketLimitUs(int bucket) {
+        return 1L << bucket;
+    }
+
+    /**
+     * Upper bound in microseconds below which the given fraction of the
+     * histogram samples fall, or 0 when the histogram is empty.
+     */
+    public static long getPercentileUs(long[] histogram, double fraction) {
+        long total = 0;
+        for (long count: histogram)
+            total += count;
+        if (total == 0)
+            return 0;
+
+        long target = (long)Math.ceil(total * fraction);
+        long seen = 0;
+        for (int i=0; i<histogram.length; i++) {
+            seen += histogram[i];
+            if (seen >= target)
+                return getBucketLimitUs(i);
+        }
+        return getBucketLimitUs(histogram.length - 1);
+    }
+}
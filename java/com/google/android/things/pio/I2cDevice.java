@@ -21,8 +21,35 @@ package com.google.android.things.pio;
 import java.io.Closeable;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
+/**
+ * The offset and ByteBuffer variants move transfers bigger than a few bytes
+ * through a memory region shared with the things service instead of binder
+ * arrays, so they neither allocate per call nor copy twice. ByteBuffer
+ * variants transfer the remaining bytes of the buffer and advance its position.
+ */
 public interface I2cDevice extends Closeable {
+    public static final int MAX_TRANSFER_SIZE = 8192;
+    public static final int MAX_UPDATE_REGISTERS = 64;
+
+    // priority classes of the bus scheduler, higher classes always go first.
+    public static final int PRIORITY_BACKGROUND = 0;
+    public static final int PRIORITY_NORMAL = 1;
+    public static final int PRIORITY_REALTIME = 2;
+
+    // formats of a fifo level register, SMBus words are little endian.
+    public static final int FIFO_LEVEL_BYTE = 0;
+    public static final int FIFO_LEVEL_WORD_LE = 1;
+    public static final int FIFO_LEVEL_WORD_BE = 2;
+
+    // states of a fifo, see getFifoStatus.
+    public static final int FIFO_STATUS_OK = 0;
+    public static final int FIFO_STATUS_TRIGGER_LOST = 1;
+    public static final int FIFO_STATUS_REGION_LOST = 2;
+
     public abstract void close() throws IOException;
     public String getName();
     public abstract void read(byte[] buffer, int length) throws IOException, IllegalArgumentException;
@@ -33,4 +60,95 @@ public interface I2cDevice extends Closeable {
     public abstract void writeRegBuffer(int reg, byte[] buffer, int length) throws IOException, IllegalArgumentException;
     public abstract void writeRegByte(int reg, byte data) throws IOException, IllegalArgumentException;
     public abstract void writeRegWord(int reg, short data) throws IOException, IllegalArgumentException;
+
+    public abstract void read(byte[] buffer, int offset, int length) throws IOException, IllegalArgumentException;
+    public abstract void read(ByteBuffer buffer) throws IOException, IllegalArgumentException;
+    public abstract void readRegBuffer(int reg, byte[] buffer, int offset, int length) throws IOException, IllegalArgumentException;
+    public abstract void readRegBuffer(int reg, ByteBuffer buffer) throws IOException, IllegalArgumentException;
+    public abstract void write(byte[] buffer, int offset, int length) throws IOException, IllegalArgumentException;
+    public abstract void write(ByteBuffer buffer) throws IOException, IllegalArgumentException;
+    public abstract void writeRegBuffer(int reg, byte[] buffer, int offset, int length) throws IOException, IllegalArgumentException;
+    public abstract void writeRegBuffer(int reg, ByteBuffer buffer) throws IOException, IllegalArgumentException;
+
+    /**
+     * Read-modify-write of the bits in mask, done by the things service in
+     * one binder call with no other transfer on the bus in between.
+     */
+    public abstract void updateRegBits(int reg, int mask, int value) throws IOException, IllegalArgumentException;
+    public abstract void updateRegWordBits(int reg, int mask, int value) throws IOException, IllegalArgumentException;
+    public abstract void updateRegBits(int[] regs, int[] masks, int[] values) throws IOException, IllegalArgumentException;
+
+    /**
+     * Sequential read and page write of a 24Cxx style memory addressed by
+     * addressWidth bytes. The things service splits the write at pageSize
+     * boundaries and waits for each page's write cycle by ACK polling, so it
+     * returns once the data is stored. See {@link I2cEeprom}.
+     */
+    public abstract void readEeprom(int address, int addressWidth, byte[] buffer, int offset, int length) throws IOException, IllegalArgumentException;
+    public abstract void writeEeprom(int address, int addressWidth, int pageSize, byte[] buffer, int offset, int length) throws IOException, IllegalArgumentException;
+    /**
+     * Describes the on-chip FIFO of a sensor: its fill level is read from
+     * levelReg, masked with levelMask and counts levelUnit bytes, then the
+     * whole samples of sampleSize bytes are read from dataReg.
+     */
+    public abstract void setFifo(int levelReg, int levelFormat, int levelMask, int levelUnit, int dataReg, int sampleSize) throws IOException, IllegalArgumentException;
+
+    /**
+     * Lets the things service drain the FIFO at each edgeType edge of a
+     * data-ready gpio, keeping up to capacity bytes until they are drained.
+     * A null gpio removes the trigger.
+     */
+    public abstract void setFifoTrigger(Gpio gpio, int edgeType, int capacity) throws IOException, IllegalArgumentException;
+
+    /**
+     * Drains whole samples of the FIFO into the remaining bytes of buffer,
+     * the fill level and data reads take one binder call and no allocation.
+     * With a trigger it takes the samples drained so far, waiting up to
+     * timeoutMs for some.
+     *
+     * @return number of bytes drained.
+     */
+    public abstract int drainFifo(ByteBuffer buffer, int timeoutMs) throws IOException, IllegalArgumentException;
+    /**
+     * Samples the trigger had to drop because they were not drained in time,
+     * and triggered drains whose read failed.
+     */
+    public abstract long getFifoDroppedCount() throws IOException;
+    public abstract long getFifoFailedDrainCount() throws IOException;
+    /**
+     * FIFO_STATUS_TRIGGER_LOST once the trigger gpio was closed, and
+     * FIFO_STATUS_REGION_LOST once the transfer region went away under a
+     * triggered drain. Either removes the trigger and drops the samples it
+     * kept, drains read the FIFO right away from then on. Setting a new
+     * trigger resets the status.
+     */
+    public abstract int getFifoStatus() throws IOException;
+    public abstract void setPriority(int priority) throws IOException, IllegalArgumentException;
+    /**
+     * Runs the segments as one combined transfer with a repeated start
+     * between them. Throws UnsupportedOperationException when the things
+     * service runs on a native library without combined transfers.
+     */
+    public abstract void transact(I2cTransaction transaction) throws IOException, IllegalArgumentException;
+
+    /**
+     * Starts polling length bytes from reg rateHz times a second in the
+     * things service, keeping up to capacity samples until they are read.
+     */
+    public abstract I2cPollingJob startPolling(int reg, int length, int rateHz, int capacity) throws IOException, IllegalArgumentException;
+
+    /**
+     * Streams length bytes through a pipe, for transfers too big for one
+     * binder call like memory images or firmware. The things service moves
+     * them over the bus chunkSize bytes at a time, 0 picks a default. With
+     * incrementReg each chunk goes to reg plus its offset in the stream,
+     * otherwise every chunk goes to reg, as for a FIFO. Registers are 8 bit,
+     * so an incrementing stream has to end by register 255, bigger memories
+     * go through {@link #readEeprom} and {@link #writeEeprom}. Closing the
+     * write stream waits for the last chunk and throws if the transfer failed
+     * or did not finish within 30 seconds. A device has at most 4 streams
+     * open and an app at most 8.
+     */
+    public abstract InputStream openReadStream(int reg, int length, int chunkSize, boolean incrementReg) throws IOException, IllegalArgumentException;
+    public abstract OutputStream openWriteStream(int reg, int length, int chunkSize, boolean incrementReg) throws IOException, IllegalArgumentException;
 }
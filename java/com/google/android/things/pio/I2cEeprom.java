@@ -0,0 +1,147 @@
+/*
+ *    Copyright (c) 2019 Sangchul Go <luke.go@hardkernel.com>
+ *
+ *    OdroidThings is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as
+ *    published by the Free Software Foundation, either version 3 of the
+ *    License, or (at your option) any later version.
+ *
+ *    OdroidThings is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with OdroidThings.
+ *    If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.google.android.things.pio;
+
+import java.io.Flushable;
+import java.io.IOException;
+
+/**
+ * Driver of a 24Cxx style EEPROM over an {@link I2cDevice}.
+ *
+ * Writes that continue where the previous one ended are coalesced in a
+ * buffer and go to the memory together, so appending small records costs
+ * whole page writes rather than one write cycle per record. The things
+ * service splits them at page boundaries and ACK polls each write cycle.
+ * Buffered bytes are written by {@link #flush()}, by a read, by a write
+ * elsewhere, or once the buffer fills up.
+ *
+ * Memories up to 256 bytes are addressed by one byte, from 4KB (24C32) on
+ * by two. The 24C04 to 24C16 in between take a one byte address and the
+ * upper address bits as block select bits of the device address, so each
+ * 256 byte block is a device of its own and needs a driver of its own.
+ */
+public class I2cEeprom implements Flushable {
+    private final I2cDevice device;
+    private final int size;
+    private final int pageSize;
+    private final int addressWidth;
+
+    private final byte[] pending = new byte[I2cDevice.MAX_TRANSFER_SIZE];
+    private int pendingAddress;
+    private int pendingLength;
+
+    public I2cEeprom(I2cDevice device, int size, int pageSize) {
+        this(device, size, pageSize, defaultAddressWidth(size));
+    }
+
+    private static int defaultAddressWidth(int size) {
+        if (size <= 256)
+            return 1;
+        if (size > 2048)
+            return 2;
+        throw new IllegalArgumentException("24C04 to 24C16 select 256 byte blocks by the device address, open each block as a 256 byte memory");
+    }
+
+    public I2cEeprom(I2cDevice device, int size, int pageSize, int addressWidth) {
+        if ((addressWidth != 1) && (addressWidth != 2))
+            throw new IllegalArgumentException("address width should be 1 or 2 bytes");
+        if ((size <= 0) || (size > (1 << (8 * addressWidth))))
+            throw new IllegalArgumentException("size should be 1 to " + (1 << (8 * addressWidth)) + " bytes");
+        if ((pageSize <= 0) || (pageSize > 256) || ((pageSize & (pageSize - 1)) != 0))
+            throw new IllegalArgumentException("page size should be a power of two up to 256 bytes");
+        this.device = device;
+        this.size = size;
+        this.pageSize = pageSize;
+        this.addressWidth = addressWidth;
+    }
+
+    public I2cDevice getDevice() {
+        return device;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public synchronized void read(int address, byte[] buffer, int offset, int length) throws IOException {
+        checkAccess(address, buffer.length, offset, length);
+        flush();
+        while (length > 0) {
+            int count = Math.min(length, I2cDevice.MAX_TRANSFER_SIZE);
+            device.readEeprom(address, addressWidth, buffer, offset, count);
+            address += count;
+            offset += count;
+            length -= count;
+        }
+    }
+
+    public synchronized void write(int address, byte[] buffer, int offset, int length) throws IOException {
+        checkAccess(address, buffer.length, offset, length);
+        if ((pendingLength > 0) && (address != pendingAddress + pendingLength))
+            flush();
+
+        while (length > 0) {
+            if (pendingLength == 0)
+                pendingAddress = address;
+            int count = Math.min(length, pending.length - pendingLength);
+            System.arraycopy(buffer, offset, pending, pendingLength, count);
+            pendingLength += count;
+            address += count;
+            offset += count;
+            length -= count;
+
+            if (pendingLength == pending.length)
+                writePending(flushablePages());
+        }
+    }
+
+    /**
+     * Writes the buffered bytes and returns once they are stored.
+     */
+    @Override
+    public synchronized void flush() throws IOException {
+        if (pendingLength > 0)
+            writePending(pendingLength);
+    }
+
+    // buffered bytes up to the last page boundary, the rest may still grow.
+    private int flushablePages() {
+        int end = pendingAddress + pendingLength;
+        int count = end - (end % pageSize) - pendingAddress;
+        return (count > 0) ? count : pendingLength;
+    }
+
+    private void writePending(int count) throws IOException {
+        device.writeEeprom(pendingAddress, addressWidth, pageSize, pending, 0, count);
+        System.arraycopy(pending, count, pending, 0, pendingLength - count);
+        pendingAddress += count;
+        pendingLength -= count;
+    }
+
+    private void checkAccess(int address, int bufferSize, int offset, int length) {
+        if ((offset < 0) || (length < 0) || (offset > bufferSize - length))
+            throw new IllegalArgumentException("offset and length are out of the buffer");
+        if ((address < 0) || (address > size - length))
+            throw new IllegalArgumentException("address and length are out of the " + size + " bytes memory");
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ *    Copyright (c) 2019 Sangchul Go <luke.go@hardkernel.com>
+ *
+ *    OdroidThings is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as
+ *    published by the Free Software Foundation, either version 3 of the
+ *    License, or (at your option) any later version.
+ *
+ *    OdroidThings is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with OdroidThings.
+ *    If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.google.android.things.pio;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Register block of an {@link I2cDevice} polled at a fixed rate by the
+ * things service. Each sample is timestamped in the
+ * {@link android.os.SystemClock#elapsedRealtimeNanos()} time base and
+ * fetched in batches with {@link #read(long[], byte[])}.
+ */
+public interface I2cPollingJob extends Closeable {
+    public abstract void close() throws IOException;
+    public int getSampleSize();
+    public int getRateHz();
+
+    /**
+     * Moves the oldest samples into the arrays, sample i is stored in
+     * timestampsNs[i] and at data[i * getSampleSize()] onwards.
+     *
+     * @return number of samples read.
+     */
+    public abstract int read(long[] timestampsNs, byte[] data) throws IOException;
+    public abstract long getDroppedCount() throws IOException;
+}
@@ -0,0 +1,209 @@
+/*
+ *    Copyright (c) 2019 Sangchul Go <luke.go@hardkernel.com>
+ *
+ *    OdroidThings is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as
+ *    published by the Free Software Foundation, either version 3 of the
+ *    License, or (at your option) any later version.
+ *
+ *    OdroidThings is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with OdroidThings.
+ *    If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.google.android.things.pio;
+
+import java.io.IOException;
+
+/**
+ * Register cache over an {@link I2cDevice} with 8 bit register addresses.
+ * Every register is declared as one of
+ * <ul>
+ * <li>{@link #VOLATILE}: the device may change it, always read from the bus.
+ * <li>{@link #NON_VOLATILE}: only changed by us, read from the bus once and
+ * then served from the cache.
+ * <li>{@link #WRITE_ONLY}: never read from the bus, reads return the last
+ * written or declared value.
+ * </ul>
+ * Writes go through to the device, unless lazy sync is on: then writes to
+ * cached registers only mark them dirty until {@link #sync()}.
+ * Registers are {@link #VOLATILE} until declared otherwise.
+ */
+public class I2cRegisterMap {
+    public static final int VOLATILE = 0;
+    public static final int NON_VOLATILE = 1;
+    public static final int WRITE_ONLY = 2;
+
+    public static final int WIDTH_BYTE = 1;
+    public static final int WIDTH_WORD = 2;
+
+    private static final int REGISTERS = 256;
+
+    private final I2cDevice device;
+    private final int width;
+    private final int valueMask;
+
+    private final int[] types = new int[REGISTERS];
+    private final int[] values = new int[REGISTERS];
+    private final boolean[] cached = new boolean[REGISTERS];
+    private final boolean[] dirty = new boolean[REGISTERS];
+    private final int[] resetValues = new int[REGISTERS];
+    private final boolean[] hasReset = new boolean[REGISTERS];
+    private boolean lazySync;
+
+    public I2cRegisterMap(I2cDevice device, int width) {
+        if ((width != WIDTH_BYTE) && (width != WIDTH_WORD))
+            throw new IllegalArgumentException("width should be WIDTH_BYTE or WIDTH_WORD");
+        this.device = device;
+        this.width = width;
+        valueMask = (width == WIDTH_BYTE) ? 0xFF : 0xFFFF;
+    }
+
+    public I2cDevice getDevice() {
+        return device;
+    }
+
+    public synchronized void declare(int reg, int type) {
+        checkRegister(reg);
+        if ((type < VOLATILE) || (type > WRITE_ONLY))
+            throw new IllegalArgumentException("type should be VOLATILE, NON_VOLATILE or WRITE_ONLY");
+        types[reg] = type;
+        hasReset[reg] = false;
+        if (type == VOLATILE) {
+            cached[reg] = false;
+            dirty[reg] = false;
+        }
+    }
+
+    /**
+     * Declares a cached register together with its value after reset, so that
+     * even the first read is served from the cache.
+     */
+    public synchronized void declare(int reg, int type, int resetValue) {
+        if (type == VOLATILE)
+            throw new IllegalArgumentException("volatile registers have no cached value");
+        declare(reg, type);
+        resetValues[reg] = resetValue & valueMask;
+        hasReset[reg] = true;
+        values[reg] = resetValues[reg];
+        cached[reg] = true;
+        dirty[reg] = false;
+    }
+
+    /**
+     * Holds writes to cached registers until {@link #sync()}. Turning it off
+     * syncs right away.
+     */
+    public void setLazySync(boolean enabled) throws IOException {
+        synchronized(this) {
+            lazySync = enabled;
+        }
+        if (!enabled)
+            sync();
+    }
+
+    public synchronized int read(int reg) throws IOException {
+        checkRegister(reg);
+        if (cached[reg])
+            return values[reg];
+        if (types[reg] == WRITE_ONLY)
+            throw new IOException("register(" + reg + ") is write-only and has no cached value");
+
+        int value = readDevice(reg);
+        if (types[reg] == NON_VOLATILE) {
+            values[reg] = value;
+            cached[reg] = true;
+        }
+        return value;
+    }
+
+    public synchronized void write(int reg, int value) throws IOException {
+        checkRegister(reg);
+        value &= valueMask;
+        if (types[reg] == VOLATILE) {
+            writeDevice(reg, value);
+            return;
+        }
+
+        if (lazySync) {
+            values[reg] = value;
+            cached[reg] = true;
+            dirty[reg] = true;
+            return;
+        }
+        writeDevice(reg, value);
+        values[reg] = value;
+        cached[reg] = true;
+        dirty[reg] = false;
+    }
+
+    /**
+     * Read-modify-write of the bits in mask. Cached registers are not read
+     * from the bus, and nothing is written when the bits already match.
+     * Volatile registers are updated by the things service in one call.
+     */
+    public synchronized void updateBits(int reg, int mask, int value) throws IOException {
+        checkRegister(reg);
+        if (types[reg] == VOLATILE) {
+            if (width == WIDTH_BYTE)
+                device.updateRegBits(reg, mask, value);
+            else
+                device.updateRegWordBits(reg, mask, value);
+            return;
+        }
+
+        int current = read(reg);
+        int next = (current & ~mask) | (value & mask);
+        if (next == current)
+            return;
+        write(reg, next);
+    }
+
+    /**
+     * Writes every dirty register to the device.
+     */
+    public synchronized void sync() throws IOException {
+        for (int reg=0; reg<REGISTERS; reg++) {
+            if (!dirty[reg])
+                continue;
+            writeDevice(reg, values[reg]);
+            dirty[reg] = false;
+        }
+    }
+
+    /**
+     * Forgets the cached values, e.g. after the device was reset. Dirty
+     * values are dropped as well. Registers declared with a reset value go
+     * back to it.
+     */
+    public synchronized void invalidate() {
+        for (int reg=0; reg<REGISTERS; reg++) {
+            values[reg] = resetValues[reg];
+            cached[reg] = hasReset[reg];
+            dirty[reg] = false;
+        }
+    }
+
+    private static void checkRegister(int reg) {
+        if ((reg < 0) || (reg >= REGISTERS))
+            throw new IllegalArgumentException("register should be 0 to " + (REGISTERS - 1));
+    }
+
+    private int readDevice(int reg) throws IOException {
+        if (width == WIDTH_BYTE)
+            return device.readRegByte(reg) & 0xFF;
+        return device.readRegWord(reg) & 0xFFFF;
+    }
+
+    private void writeDevice(int reg, int value) throws IOException {
+        if (width == WIDTH_BYTE)
+            device.writeRegByte(reg, (byte)value);
+        else
+            device.writeRegWord(reg, (short)value);
+    }
+}
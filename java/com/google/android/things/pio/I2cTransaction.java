@@ -0,0 +1,155 @@
+/*
+ *    Copyright (c) 2019 Sangchul Go <luke.go@hardkernel.com>
+ *
+ *    OdroidThings is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as
+ *    published by the Free Software Foundation, either version 3 of the
+ *    License, or (at your option) any later version.
+ *
+ *    OdroidThings is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with OdroidThings.
+ *    If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.google.android.things.pio;
+
+import java.util.Arrays;
+
+/**
+ * List of read and write segments that {@link I2cDevice#transact(I2cTransaction)}
+ * runs as one combined transfer, with a repeated start between segments and
+ * a single stop at the end. No other client gets on the bus in between.
+ * <p>
+ * A typical register read is
+ * <pre>
+ * I2cTransaction transaction = new I2cTransaction().write((byte)reg);
+ * int data = transaction.read(6);
+ * device.transact(transaction);
+ * transaction.getReadData(data, buffer, 0);
+ * </pre>
+ * A transaction can be run again, or cleared and refilled.
+ */
+public final class I2cTransaction {
+    public static final int MAX_SEGMENTS = 42;
+
+    private boolean[] reads = new boolean[4];
+    private int[] lengths = new int[4];
+    private int[] readOffsets = new int[4];
+    private int segmentCount;
+
+    private byte[] writeData = new byte[16];
+    private int writeLength;
+    private int readLength;
+    private byte[] readData;
+
+    public I2cTransaction write(byte... data) {
+        return write(data, 0, data.length);
+    }
+
+    public I2cTransaction write(byte[] data, int offset, int length) {
+        if ((offset < 0) || (length <= 0) || (offset > data.length - length))
+            throw new IllegalArgumentException("offset and length are out of the buffer");
+        if (length > I2cDevice.MAX_TRANSFER_SIZE)
+            throw new IllegalArgumentException("segment is bigger then " + I2cDevice.MAX_TRANSFER_SIZE);
+
+        addSegment(false, length);
+        if (writeLength + length > writeData.length)
+            writeData = Arrays.copyOf(writeData, Math.max(writeData.length * 2, writeLength + length));
+        System.arraycopy(data, offset, writeData, writeLength, length);
+        writeLength += length;
+        return this;
+    }
+
+    /**
+     * Adds a read segment of length bytes.
+     *
+     * @return the segment index to fetch the data with after the transaction ran.
+     */
+    public int read(int length) {
+        if ((length <= 0) || (length > I2cDevice.MAX_TRANSFER_SIZE))
+            throw new IllegalArgumentException("segment should be 1 to " + I2cDevice.MAX_TRANSFER_SIZE + " bytes");
+
+        int segment = segmentCount;
+        addSegment(true, length);
+        readOffsets[segment] = readLength;
+        readLength += length;
+        return segment;
+    }
+
+    private void addSegment(boolean read, int length) {
+        if (segmentCount == MAX_SEGMENTS)
+            throw new IllegalStateException("transaction is limited to " + MAX_SEGMENTS + " segments");
+        if (segmentCount == reads.length) {
+            reads = Arrays.copyOf(reads, segmentCount * 2);
+            lengths = Arrays.copyOf(lengths, segmentCount * 2);
+            readOffsets = Arrays.copyOf(readOffsets, segmentCount * 2);
+        }
+        reads[segmentCount] = read;
+        lengths[segmentCount] = length;
+        segmentCount++;
+        readData = null;
+    }
+
+    public void clear() {
+        segmentCount = 0;
+        writeLength = 0;
+        readLength = 0;
+        readData = null;
+    }
+
+    public int getSegmentCount() {
+        return segmentCount;
+    }
+
+    /**
+     * Copies the data of a read segment into buffer at offset.
+     */
+    public void getReadData(int segment, byte[] buffer, int offset) {
+        checkReadSegment(segment);
+        System.arraycopy(readData, readOffsets[segment], buffer, offset, lengths[segment]);
+    }
+
+    public byte[] getReadData(int segment) {
+        checkReadSegment(segment);
+        return Arrays.copyOfRange(readData, readOffsets[segment], readOffsets[segment] + lengths[segment]);
+    }
+
+    private void checkReadSegment(int segment) {
+        if ((segment < 0) || (segment >= segmentCount) || !reads[segment])
+            throw new IllegalArgumentException("segment " + segment + " is not a read segment");
+        if (readData == null)
+            throw new IllegalStateException("transaction has not run");
+    }
+
+    /** @hide */
+    public boolean[] getReads() {
+        return Arrays.copyOf(reads, segmentCount);
+    }
+
+    /** @hide */
+    public int[] getLengths() {
+        return Arrays.copyOf(lengths, segmentCount);
+    }
+
+    /** @hide */
+    public byte[] getWriteData() {
+        return Arrays.copyOf(writeData, writeLength);
+    }
+
+    /** @hide */
+    public int getReadLength() {
+        return readLength;
+    }
+
+    /** @hide */
+    public void setReadData(byte[] data) {
+        if ((data == null) || (data.length != readLength))
+            throw new IllegalArgumentException("read data should be " + readLength + " bytes");
+        readData = data;
+    }
+}
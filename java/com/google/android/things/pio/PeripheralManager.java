@@ -19,6 +19,7 @@
 package com.google.android.things.pio;
 
 import com.google.android.things.pio.Gpio;
+import com.google.android.things.pio.GpioBank;
 import com.google.android.things.pio.GpioCallback;
 import com.google.android.things.pio.I2cDevice;
 import com.google.android.things.pio.Pwm;
@@ -37,6 +38,7 @@ import android.os.Binder;
 
 import com.google.android.things.pio.IThingsManager;
 import com.google.android.things.pio.impl.GpioImpl;
+import com.google.android.things.pio.impl.GpioBankImpl;
 import com.google.android.things.pio.impl.PwmImpl;
 import com.google.android.things.pio.impl.I2cImpl;
 
@@ -123,6 +125,35 @@ public final class PeripheralManager {
         return gpio;
     }
 
+    public GpioBank openGpioBank(String... names) throws IOException {
+        if ((names.length == 0) || (names.length > GpioBank.MAX_PINS))
+            throw new IllegalArgumentException("gpio bank should have 1 to " + GpioBank.MAX_PINS + " pins");
+
+        int[] pins = new int[names.length];
+        int opened = 0;
+        try {
+            for (; opened < names.length; opened++) {
+                int pin = mThingsManager.getGpioPinBy(names[opened]);
+                if (pin == -1)
+                    break;
+                pins[opened] = pin;
+            }
+        } catch (RemoteException e) {
+            Log.d(TAG, "Remote Exception!!");
+        }
+
+        if (opened != names.length) {
+            for (int i=0; i < opened; i++) {
+                try {
+                    mThingsManager.closeGpio(pins[i]);
+                } catch (RemoteException e) {}
+            }
+            throw new IOException("gpio(" + names[opened] +") is not opened");
+        }
+
+        return new GpioBankImpl(names, pins, mThingsManager, thingsId);
+    }
+
     public Pwm openPwm(String name) throws IOException {
         Pwm pwm = null;
         try {
@@ -27,4 +27,6 @@ public interface Pwm extends Closeable {
     public abstract void setEnabled(boolean enabled) throws IOException;
     public abstract void setPwmDutyCycle(double duty_cycle) throws IllegalArgumentException, IOException;
     public abstract void setPwmFrequencyHz(double freq_hz) throws IllegalArgumentException, IOException;
+    public void setWriteCacheEnabled(boolean enabled);
+    public void invalidateWriteCache();
 }
@@ -0,0 +1,145 @@
+/*
+ *    Copyright (c) 2019 Sangchul Go <luke.go@hardkernel.com>
+ *
+ *    OdroidThings is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as
+ *    published by the Free Software Foundation, either version 3 of the
+ *    License, or (at your option) any later version.
+ *
+ *    OdroidThings is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with OdroidThings.
+ *    If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.google.android.things.pio.impl;
+
+import com.google.android.things.pio.Gpio;
+import com.google.android.things.pio.GpioBank;
+import com.google.android.things.pio.GpioSampler;
+import com.google.android.things.pio.IThingsManager;
+
+import android.os.RemoteException;
+
+import java.lang.AutoCloseable;
+import java.io.IOException;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import android.util.Log;
+
+/**
+ * @hide
+ */
+public class GpioBankImpl implements GpioBank, AutoCloseable {
+    static final String TAG = "GpioBankImpl";
+    final List<String> names;
+    final int[] pins;
+    int direction;
+
+    private final IThingsManager mThingsManager;
+    private final int thingsId;
+
+    public GpioBankImpl(String[] names, int[] pins, IThingsManager manager, int thingsId) {
+        this.names = Collections.unmodifiableList(Arrays.asList(names.clone()));
+        this.pins = pins;
+
+        mThingsManager = manager;
+        this.thingsId = thingsId;
+        try {
+            for (int pin: pins)
+                mThingsManager.register(pin, thingsId);
+        } catch (RemoteException e) {}
+    }
+
+    @Override
+    public void close() throws IOException {
+        boolean result = true;
+        for (int pin: pins) {
+            try {
+                if (mThingsManager.closeGpio(pin) == false)
+                    result = false;
+                mThingsManager.unregister(pin, thingsId);
+            } catch (RemoteException e) {
+                Log.d(TAG, "Remote Exception!!");
+                result = false;
+            }
+        }
+        if (result == false)
+            throw new IOException("gpio bank is not closed");
+    }
+
+    public List<String> getNames() {
+        return names;
+    }
+
+    public int size() {
+        return pins.length;
+    }
+
+    public long getValues() throws IOException {
+        try {
+            return mThingsManager.getGpioValues(pins);
+        } catch (RemoteException e) {
+            Log.d(TAG, "Remote Exception!!");
+            throw new IOException("gpio bank is not read");
+        }
+    }
+
+    /**
+     * Start sampling all pins of the bank at rateHz in the things service,
+     * keeping up to capacity samples until they are read.
+     */
+    public GpioSampler createSampler(int rateHz, int capacity) throws IllegalArgumentException, IOException {
+        try {
+            int samplerId = mThingsManager.startGpioSampler(pins, rateHz, capacity);
+            return new GpioSamplerImpl(samplerId, pins.length, rateHz, mThingsManager);
+        } catch (RemoteException e) {
+            Log.d(TAG, "Remote Exception!!");
+            throw new IOException("gpio sampler is not started");
+        }
+    }
+
+    public void setActiveType(int activeType) throws IllegalArgumentException, IOException {
+        if ((activeType != Gpio.ACTIVE_LOW) &&
+            (activeType != Gpio.ACTIVE_HIGH)) {
+            throw new IllegalArgumentException("active Type should be LOW or HIGH");
+        }
+        try {
+            for (int pin: pins)
+                mThingsManager.setGpioActiveType(pin, activeType);
+        } catch (RemoteException e) {
+            Log.d(TAG, "Remote Exception!!");
+        }
+    }
+
+    public void setDirection(int direction) throws IllegalArgumentException, IOException {
+        if ((direction < Gpio.DIRECTION_IN) ||
+            (direction > Gpio.DIRECTION_OUT_INITIALLY_LOW)) {
+            throw new IllegalArgumentException("direction should be IN , OUT_INITIALLY_HIGH or OUT_INITIALLY_LOW");
+        }
+        this.direction = direction;
+        try {
+            for (int pin: pins)
+                mThingsManager.setGpioDirection(pin, direction);
+        } catch (RemoteException e) {
+            Log.d(TAG, "Remote Exception!!");
+        }
+    }
+
+    public void setValues(long mask, long bits) throws IOException {
+        if (direction == Gpio.DIRECTION_IN)
+            throw new IOException("set direction to the OUT before set values");
+        try {
+            mThingsManager.setGpioValues(pins, mask, bits);
+        } catch (RemoteException e) {
+            Log.d(TAG, "Remote Exception!!");
+        }
+    }
+}
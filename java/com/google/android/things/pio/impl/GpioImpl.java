@@ -20,18 +20,25 @@ package com.google.android.things.pio.impl;
 
 import com.google.android.things.pio.Gpio;
 import com.google.android.things.pio.GpioCallback;
+import com.google.android.things.pio.GpioStats;
 import com.google.android.things.pio.IThingsManager;
 import com.google.android.things.pio.IGpioCallback;
 import com.google.android.things.pio.CallbackWrapper;
+import com.google.android.things.pio.util.CallbackHandlerExecutor;
 
 
 import android.os.Handler;
 import android.os.Looper;
 import android.os.RemoteException;
+import android.os.SharedMemory;
+import android.system.ErrnoException;
 
 import java.io.Closeable;
 import java.lang.AutoCloseable;
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
 import android.util.Log;
 
 /**
@@ -43,14 +50,18 @@ public class GpioImpl implements Gpio,AutoCloseable {
     final int pin;
     int direction;
 
+    private boolean writeCacheEnabled;
+    private boolean cachedValueValid;
+    private boolean cachedValue;
+
     private final IThingsManager mThingsManager;
-    private IGpioCallback mWrapperCallback;
+    private final Map<GpioCallback, CallbackWrapper> mWrappers = new HashMap<>();
+    private boolean coalesce;
     private final int thingsId;
 
     public GpioImpl(String name, int pin, IThingsManager manager, int thingsId) {
         this.name = name;
         this.pin = pin;
-        mWrapperCallback = new CallbackWrapper(pin, manager, this);
 
         mThingsManager = manager;
         this.thingsId = thingsId;
@@ -101,22 +112,94 @@ public class GpioImpl implements Gpio,AutoCloseable {
 
 
     public void registerGpioCallback(GpioCallback callback) throws IOException {
-        registerGpioCallback(null, callback);
+        registerGpioCallback((Handler)null, callback);
     }
 
     public void registerGpioCallback(Handler handler, GpioCallback callback) throws IOException {
+        registerGpioCallback(handler, callback, EDGE_BOTH);
+    }
+
+    /**
+     * Register a callback that only hears edges of edgeType. Any number of
+     * callbacks can watch the same pin, the service arms the pin interrupt
+     * once for all of them.
+     */
+    public void registerGpioCallback(Handler handler, GpioCallback callback, int edgeType) throws IOException {
+        if ((edgeType < EDGE_RISING) || (edgeType > EDGE_BOTH))
+            throw new IllegalArgumentException("edge type should be RISING, FALLING or BOTH");
+
+        CallbackWrapper wrapper = wrapperOf(handlerExecutorOf(handler), callback);
+        wrapper.releaseRing();
+        try {
+            mThingsManager.registerGpioEdgeCallback(pin, wrapper, edgeType);
+        } catch (RemoteException e) {
+            Log.d(TAG, "Remote Exception!!");
+        }
+    }
+
+    /**
+     * Register a callback that runs on the given executor instead of a Handler.
+     * With {@link com.google.android.things.pio.util.DirectExecutor} it runs on
+     * the binder thread, with a
+     * {@link com.google.android.things.pio.util.DispatcherThreadExecutor}
+     * on a dedicated thread; neither allocates per edge.
+     */
+    public void registerGpioCallback(Executor executor, GpioCallback callback) throws IOException {
+        if (executor == null)
+            throw new IllegalArgumentException("executor is null.");
+
+        CallbackWrapper wrapper = wrapperOf(executor, callback);
+        wrapper.releaseRing();
+        try {
+            mThingsManager.registerGpioEdgeCallback(pin, wrapper, EDGE_BOTH);
+        } catch (RemoteException e) {
+            Log.d(TAG, "Remote Exception!!");
+        }
+    }
+
+    /**
+     * Register a callback that receives edges through a shared memory ring of
+     * the given capacity. The service only sends a wake-up when the ring turns
+     * non-empty, and the edges are drained on the handler as
+     * {@link GpioCallback#onGpioEdges} batches.
+     */
+    public void registerGpioRingCallback(Handler handler, GpioCallback callback, int capacity) throws IOException {
+        CallbackWrapper wrapper = wrapperOf(handlerExecutorOf(handler), callback);
+        try {
+            SharedMemory ring = mThingsManager.registerGpioRingCallback(pin, wrapper, capacity);
+            wrapper.setRing(ring);
+        } catch (RemoteException e) {
+            Log.d(TAG, "Remote Exception!!");
+        } catch (ErrnoException e) {
+            unregisterGpioCallback(callback);
+            throw new IOException("edge ring is not mapped", e);
+        }
+    }
+
+    private static Executor handlerExecutorOf(Handler handler) {
+        return new CallbackHandlerExecutor(checkHandler(handler));
+    }
+
+    private CallbackWrapper wrapperOf(Executor executor, GpioCallback callback) throws IOException {
         if (direction != DIRECTION_IN)
             throw new IOException("gpio should be input mode.");
 
         if (callback == null)
             throw new IOException("callback is null.");
 
+        synchronized(mWrappers) {
+            // callbacks that returned false have already unregistered themselves.
+            mWrappers.values().removeIf((wrapper) -> wrapper.callback == null);
 
-        ((CallbackWrapper)mWrapperCallback).callback = callback;
-        ((CallbackWrapper)mWrapperCallback).setHandler(checkHandler(handler));
-        try {
-        mThingsManager.registerGpioCallback(pin, mWrapperCallback);
-        }catch(RemoteException e) {
+            CallbackWrapper wrapper = mWrappers.get(callback);
+            if (wrapper == null) {
+                wrapper = new CallbackWrapper(pin, mThingsManager, this);
+                mWrappers.put(callback, wrapper);
+            }
+            wrapper.callback = callback;
+            wrapper.coalesce = coalesce;
+            wrapper.setExecutor(executor);
+            return wrapper;
         }
     }
 
@@ -125,6 +208,7 @@ public class GpioImpl implements Gpio,AutoCloseable {
             (activeType != ACTIVE_HIGH)) {
             throw new IllegalArgumentException("active Type should be LOW or HIGH");
         }
+        invalidateWriteCache();
         try {
             mThingsManager.setGpioActiveType(pin, activeType);
         } catch (RemoteException e) {
@@ -138,6 +222,7 @@ public class GpioImpl implements Gpio,AutoCloseable {
             throw new IllegalArgumentException("direction shuold be IN , OUT_INITIALLY_HIGH or OUT_INITIALLY_LOW");
         }
         this.direction = direction;
+        invalidateWriteCache();
         try {
             mThingsManager.setGpioDirection(pin, direction);
         } catch (RemoteException e) {
@@ -159,25 +244,186 @@ public class GpioImpl implements Gpio,AutoCloseable {
         }
     }
 
+    /**
+     * Deliver edges in batches of up to maxBatchSize, or after maxLatencyMs
+     * since the first pending edge, whichever comes first.
+     * A maxBatchSize of 0 restores per-edge delivery.
+     */
+    public void setEdgeBatching(int maxBatchSize, int maxLatencyMs) throws IllegalArgumentException, IOException {
+        if ((maxBatchSize < 0) || (maxLatencyMs < 0))
+            throw new IllegalArgumentException("batch size and latency should not be negative");
+        if (direction != DIRECTION_IN)
+            throw new IOException("set direction to the IN before set edge batching");
+
+        try {
+            mThingsManager.setGpioEdgeBatching(pin, maxBatchSize, maxLatencyMs);
+        } catch (RemoteException e) {
+            Log.d(TAG, "Remote Exception!!");
+        }
+    }
+
+    /**
+     * Deliver edges from a bounded service queue and worker pool instead of the
+     * interrupt thread. When the queue is full, overflowPolicy decides which
+     * edge is lost, and the number of lost edges is reported through
+     * {@link GpioCallback#onGpioEdgesDropped}. A capacity of 0 disables the queue.
+     */
+    public void setDispatchQueue(int capacity, int overflowPolicy) throws IllegalArgumentException, IOException {
+        if (capacity < 0)
+            throw new IllegalArgumentException("queue capacity should not be negative");
+        if ((overflowPolicy < OVERFLOW_DROP_OLDEST) || (overflowPolicy > OVERFLOW_COALESCE))
+            throw new IllegalArgumentException("overflow policy should be DROP_OLDEST, DROP_NEWEST or COALESCE");
+        if (direction != DIRECTION_IN)
+            throw new IOException("set direction to the IN before set dispatch queue");
+
+        try {
+            mThingsManager.setGpioDispatchQueue(pin, capacity, overflowPolicy);
+        } catch (RemoteException e) {
+            Log.d(TAG, "Remote Exception!!");
+        }
+    }
+
+    /**
+     * Report an edge only after the pin has been quiet for debounceMs and
+     * its settled level is a real change. 0 disables debouncing.
+     */
+    public void setDebounceWindow(int debounceMs) throws IllegalArgumentException, IOException {
+        if (debounceMs < 0)
+            throw new IllegalArgumentException("debounce window should not be negative");
+        if (direction != DIRECTION_IN)
+            throw new IOException("set direction to the IN before set debounce window");
+
+        try {
+            mThingsManager.setGpioDebounce(pin, debounceMs);
+        } catch (RemoteException e) {
+            Log.d(TAG, "Remote Exception!!");
+        }
+    }
+
+    /**
+     * Merge edges that arrive while the previous one is still waiting to be
+     * delivered, both in the service and on the callback handler.
+     */
+    public void setEdgeCoalescing(boolean enabled) throws IOException {
+        if (direction != DIRECTION_IN)
+            throw new IOException("set direction to the IN before set edge coalescing");
+
+        synchronized(mWrappers) {
+            coalesce = enabled;
+            for (CallbackWrapper wrapper: mWrappers.values())
+                wrapper.coalesce = enabled;
+        }
+        try {
+            mThingsManager.setGpioEdgeCoalescing(pin, enabled);
+        } catch (RemoteException e) {
+            Log.d(TAG, "Remote Exception!!");
+        }
+    }
+
     public void setValue(boolean value) throws IOException {
         if (direction == DIRECTION_IN)
             throw new IOException("set direction to the OUT before set value");
+        if (writeCacheEnabled && cachedValueValid && (cachedValue == value))
+            return;
+
         try {
             mThingsManager.setGpioValue(pin, value);
+            cachedValue = value;
+            cachedValueValid = true;
+        } catch (RemoteException e) {
+            Log.d(TAG, "Remote Exception!!");
+            cachedValueValid = false;
+        }
+    }
+
+    /**
+     * Upload a timed output sequence that the things service plays on its own
+     * high priority thread. Segment i holds initialLevel, inverted for odd i,
+     * for durationsNs[i]; the pin keeps the last level when it ends.
+     * Returns as soon as the sequence is uploaded.
+     */
+    public void playWaveform(long[] durationsNs, boolean initialLevel) throws IllegalArgumentException, IOException {
+        if (direction == DIRECTION_IN)
+            throw new IOException("set direction to the OUT before play waveform");
+        if ((durationsNs == null) || (durationsNs.length == 0))
+            throw new IllegalArgumentException("waveform is empty");
+
+        invalidateWriteCache();
+        try {
+            mThingsManager.playGpioWaveform(pin, durationsNs, initialLevel);
+        } catch (RemoteException e) {
+            Log.d(TAG, "Remote Exception!!");
+        }
+    }
+
+    public void cancelWaveform() throws IOException {
+        try {
+            mThingsManager.cancelGpioWaveform(pin);
+        } catch (RemoteException e) {
+            Log.d(TAG, "Remote Exception!!");
+        }
+    }
+
+    public boolean isWaveformPlaying() throws IOException {
+        try {
+            return mThingsManager.isGpioWaveformPlaying(pin);
+        } catch (RemoteException e) {
+            Log.d(TAG, "Remote Exception!!");
+            return false;
+        }
+    }
+
+    /**
+     * Edge counters and latency histograms the things service keeps for this pin.
+     */
+    public GpioStats getStats() throws IOException {
+        try {
+            return new GpioStats(mThingsManager.getGpioStats(pin));
+        } catch (RemoteException e) {
+            Log.d(TAG, "Remote Exception!!");
+            throw new IOException("gpio stats are not available");
+        }
+    }
+
+    public void resetStats() throws IOException {
+        try {
+            mThingsManager.resetGpioStats(pin);
         } catch (RemoteException e) {
             Log.d(TAG, "Remote Exception!!");
         }
     }
 
+    /**
+     * Skip setValue calls that would write the value this process set last.
+     * Only useful when nothing else drives the pin.
+     */
+    public void setWriteCacheEnabled(boolean enabled) {
+        writeCacheEnabled = enabled;
+        invalidateWriteCache();
+    }
+
+    /**
+     * Forget the last written value, so the next setValue always reaches the pin.
+     */
+    public void invalidateWriteCache() {
+        cachedValueValid = false;
+    }
+
     public void unregisterGpioCallback(GpioCallback callback) {
-        if (((CallbackWrapper)mWrapperCallback).callback == callback) {
-            try {
-                mThingsManager.unregisterGpioCallback(pin, mWrapperCallback);
-                ((CallbackWrapper)mWrapperCallback).callback = null;
-                ((CallbackWrapper)mWrapperCallback).executor = null;
-            } catch (RemoteException e) {
-                Log.d(TAG, "Remote Exception!!");
-            }
+        CallbackWrapper wrapper;
+        synchronized(mWrappers) {
+            wrapper = mWrappers.remove(callback);
+        }
+        if (wrapper == null)
+            return;
+
+        try {
+            mThingsManager.unregisterGpioCallback(pin, wrapper);
+        } catch (RemoteException e) {
+            Log.d(TAG, "Remote Exception!!");
         }
+        wrapper.callback = null;
+        wrapper.executor = null;
+        wrapper.releaseRing();
     }
 }
@@ -0,0 +1,84 @@
+/*
+ *    Copyright (c) 2019 Sangchul Go <luke.go@hardkernel.com>
+ *
+ *    OdroidThings is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as
+ *    published by the Free Software Foundation, either version 3 of the
+ *    License, or (at your option) any later version.
+ *
+ *    OdroidThings is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with OdroidThings.
+ *    If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.google.android.things.pio.impl;
+
+import com.google.android.things.pio.GpioSampler;
+import com.google.android.things.pio.IThingsManager;
+
+import android.os.RemoteException;
+
+import java.lang.AutoCloseable;
+import java.io.IOException;
+
+import android.util.Log;
+
+/**
+ * @hide
+ */
+public class GpioSamplerImpl implements GpioSampler, AutoCloseable {
+    static final String TAG = "GpioSamplerImpl";
+    final int samplerId;
+    final int pinCount;
+    final int rateHz;
+
+    private final IThingsManager mThingsManager;
+
+    public GpioSamplerImpl(int samplerId, int pinCount, int rateHz, IThingsManager manager) {
+        this.samplerId = samplerId;
+        this.pinCount = pinCount;
+        this.rateHz = rateHz;
+        mThingsManager = manager;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            mThingsManager.stopGpioSampler(samplerId);
+        } catch (RemoteException e) {
+            Log.d(TAG, "Remote Exception!!");
+            throw new IOException("gpio sampler is not closed");
+        }
+    }
+
+    public int getPinCount() {
+        return pinCount;
+    }
+
+    public int getRateHz() {
+        return rateHz;
+    }
+
+    public int read(byte[] packed) throws IOException {
+        try {
+            return mThingsManager.readGpioSamples(samplerId, packed);
+        } catch (RemoteException e) {
+            Log.d(TAG, "Remote Exception!!");
+            throw new IOException("gpio samples are not read");
+        }
+    }
+
+    public long getDroppedCount() throws IOException {
+        try {
+            return mThingsManager.getGpioSamplerDropped(samplerId);
+        } catch (RemoteException e) {
+            Log.d(TAG, "Remote Exception!!");
+            throw new IOException("gpio sampler is not available");
+        }
+    }
+}
@@ -18,13 +18,23 @@
 
 package com.google.android.things.pio.impl;
 
+import com.google.android.things.pio.Gpio;
 import com.google.android.things.pio.I2cDevice;
+import com.google.android.things.pio.I2cPollingJob;
+import com.google.android.things.pio.I2cTransaction;
 import com.google.android.things.pio.IThingsManager;
 
+import android.os.ParcelFileDescriptor;
 import android.os.RemoteException;
+import android.os.SharedMemory;
+import android.system.ErrnoException;
 
 import java.lang.AutoCloseable;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import android.util.Log;
 /**
  * @hide
@@ -37,6 +47,14 @@ public class I2cImpl implements I2cDevice, AutoCloseable {
     private final IThingsManager mThingsManager;
     private final int thingsId;
 
+    // transfers up to this size go through binder arrays.
+    private static final int SMALL_TRANSFER = 64;
+    private static final int MIN_TRANSFER_REGION = 1024;
+
+    private final Object mTransferLock = new Object();
+    private SharedMemory transferMemory;
+    private ByteBuffer transferRegion;
+
     public I2cImpl(String name, int idx, IThingsManager manager, int thingsId) {
         this.name = name;
         this.idx = idx;
@@ -50,6 +68,7 @@ public class I2cImpl implements I2cDevice, AutoCloseable {
 
     @Override
     public void close() throws IOException {
+        releaseTransferRegion();
         boolean result = false;
         try {
             result = mThingsManager.closeI2c(idx);
@@ -70,30 +89,41 @@ public class I2cImpl implements I2cDevice, AutoCloseable {
     public void read(byte[] buffer, int length) throws IOException, IllegalArgumentException {
         if (buffer.length < length)
             throw new IllegalArgumentException("length is bigger then buffer size");
+        read(false, 0, buffer, 0, length);
+    }
 
-        try {
-            byte[] result = mThingsManager.readI2c(idx, length);
-            for(int i=0;i < length; i++)
-                buffer[i] = result[i];
-        } catch (RemoteException e) { Log.d(TAG, "I2C read is not implemented!"); }
+    public void read(byte[] buffer, int offset, int length) throws IOException, IllegalArgumentException {
+        checkRange(buffer.length, offset, length);
+        read(false, 0, buffer, offset, length);
+    }
+
+    public void read(ByteBuffer buffer) throws IOException, IllegalArgumentException {
+        read(false, 0, buffer);
     }
 
     public void readRegBuffer(int reg, byte[] buffer, int length) throws IOException, IllegalArgumentException {
         if (buffer.length < length)
             throw new IllegalArgumentException("length is bigger then buffer size");
+        read(true, reg, buffer, 0, length);
+    }
 
-        try {
-            byte[] result = mThingsManager.readI2cRegBuffer(idx, reg, length);
-            for(int i=0; i < length ;i ++)
-                buffer[i] = result[i];
-        } catch (RemoteException e) {}
+    public void readRegBuffer(int reg, byte[] buffer, int offset, int length) throws IOException, IllegalArgumentException {
+        checkRange(buffer.length, offset, length);
+        read(true, reg, buffer, offset, length);
+    }
+
+    public void readRegBuffer(int reg, ByteBuffer buffer) throws IOException, IllegalArgumentException {
+        read(true, reg, buffer);
     }
 
     public byte readRegByte(int reg) throws IOException, IllegalArgumentException {
         byte result = 0;
         try {
             result = mThingsManager.readI2cRegByte(idx, reg);
-        } catch (RemoteException e) {}
+        } catch (RemoteException e) {
+        } catch (IllegalStateException e) {
+            throw new IOException(e.getMessage());
+        }
         return result;
     }
 
@@ -101,34 +131,41 @@ public class I2cImpl implements I2cDevice, AutoCloseable {
         short result = 0;
         try {
             result = (short)mThingsManager.readI2cRegWord(idx, reg);
-        } catch (RemoteException e) {}
+        } catch (RemoteException e) {
+        } catch (IllegalStateException e) {
+            throw new IOException(e.getMessage());
+        }
         return result;
     }
 
     public void write(byte[] buffer, int length) throws IOException, IllegalArgumentException {
-        boolean status = false;
         if (buffer.length < length)
             throw new IllegalArgumentException("length is bigger then buffer size");
+        write(false, 0, buffer, 0, length);
+    }
 
-        try {
-            status = mThingsManager.writeI2c(idx, buffer, length);
-        } catch (RemoteException e) {}
+    public void write(byte[] buffer, int offset, int length) throws IOException, IllegalArgumentException {
+        checkRange(buffer.length, offset, length);
+        write(false, 0, buffer, offset, length);
+    }
 
-        if (status == false)
-            throw new IOException("write is failed");
+    public void write(ByteBuffer buffer) throws IOException, IllegalArgumentException {
+        write(false, 0, buffer);
     }
 
     public void writeRegBuffer(int reg, byte[] buffer, int length) throws IOException, IllegalArgumentException {
-        boolean status = false;
         if (buffer.length < length)
             throw new IllegalArgumentException("length is bigger then buffer size");
+        write(true, reg, buffer, 0, length);
+    }
 
-        try {
-            status = mThingsManager.writeI2cRegBuffer(idx, reg, buffer, length);
-        } catch (RemoteException e) {}
+    public void writeRegBuffer(int reg, byte[] buffer, int offset, int length) throws IOException, IllegalArgumentException {
+        checkRange(buffer.length, offset, length);
+        write(true, reg, buffer, offset, length);
+    }
 
-        if (status == false)
-            throw new IOException("write is failed");
+    public void writeRegBuffer(int reg, ByteBuffer buffer) throws IOException, IllegalArgumentException {
+        write(true, reg, buffer);
     }
 
     public void writeRegByte(int reg, byte data) throws IOException, IllegalArgumentException {
@@ -150,4 +187,394 @@ public class I2cImpl implements I2cDevice, AutoCloseable {
         if (status == false)
             throw new IOException("write is failed");
     }
+
+    public void updateRegBits(int reg, int mask, int value) throws IOException, IllegalArgumentException {
+        boolean status = false;
+        try {
+            status = mThingsManager.updateI2cRegBits(idx, reg, mask, value);
+        } catch (RemoteException e) {
+            Log.d(TAG, "Remote Exception!!");
+        }
+
+        if (status == false)
+            throw new IOException("update is failed");
+    }
+
+    public void updateRegWordBits(int reg, int mask, int value) throws IOException, IllegalArgumentException {
+        boolean status = false;
+        try {
+            status = mThingsManager.updateI2cRegWordBits(idx, reg, mask, value);
+        } catch (RemoteException e) {
+            Log.d(TAG, "Remote Exception!!");
+        }
+
+        if (status == false)
+            throw new IOException("update is failed");
+    }
+
+    public void updateRegBits(int[] regs, int[] masks, int[] values) throws IOException, IllegalArgumentException {
+        if ((regs.length == 0) || (regs.length > MAX_UPDATE_REGISTERS) ||
+                (masks.length != regs.length) || (values.length != regs.length))
+            throw new IllegalArgumentException("update should have 1 to " + MAX_UPDATE_REGISTERS + " registers with a mask and value each");
+
+        boolean status = false;
+        try {
+            status = mThingsManager.updateI2cRegsBits(idx, regs, masks, values);
+        } catch (RemoteException e) {
+            Log.d(TAG, "Remote Exception!!");
+        }
+
+        if (status == false)
+            throw new IOException("update is failed");
+    }
+
+    public void readEeprom(int address, int addressWidth, byte[] buffer, int offset, int length) throws IOException, IllegalArgumentException {
+        checkRange(buffer.length, offset, length);
+        if (length > MAX_TRANSFER_SIZE)
+            throw new IllegalArgumentException("length should be up to " + MAX_TRANSFER_SIZE + " bytes");
+
+        byte[] data = null;
+        try {
+            data = mThingsManager.readI2cEeprom(idx, address, addressWidth, length);
+        } catch (RemoteException e) {
+            Log.d(TAG, "Remote Exception!!");
+        }
+
+        if (data == null)
+            throw new IOException("eeprom read is failed");
+        System.arraycopy(data, 0, buffer, offset, length);
+    }
+
+    public void writeEeprom(int address, int addressWidth, int pageSize, byte[] buffer, int offset, int length) throws IOException, IllegalArgumentException {
+        checkRange(buffer.length, offset, length);
+        if (length > MAX_TRANSFER_SIZE)
+            throw new IllegalArgumentException("length should be up to " + MAX_TRANSFER_SIZE + " bytes");
+        byte[] data = ((offset == 0) && (length == buffer.length)) ?
+            buffer : Arrays.copyOfRange(buffer, offset, offset + length);
+
+        boolean status = false;
+        try {
+            status = mThingsManager.writeI2cEeprom(idx, address, addressWidth, pageSize, data);
+        } catch (RemoteException e) {
+            Log.d(TAG, "Remote Exception!!");
+        }
+
+        if (status == false)
+            throw new IOException("eeprom write is failed");
+    }
+
+    public void setFifo(int levelReg, int levelFormat, int levelMask, int levelUnit, int dataReg, int sampleSize) throws IOException, IllegalArgumentException {
+        try {
+            mThingsManager.setI2cFifo(idx, levelReg, levelFormat, levelMask, levelUnit, dataReg, sampleSize);
+        } catch (RemoteException e) {
+            Log.d(TAG, "Remote Exception!!");
+            throw new IOException("fifo is not set");
+        }
+    }
+
+    public void setFifoTrigger(Gpio gpio, int edgeType, int capacity) throws IOException, IllegalArgumentException {
+        int pin = -1;
+        if (gpio != null) {
+            if (!(gpio instanceof GpioImpl))
+                throw new IllegalArgumentException("gpio is not a things service gpio");
+            pin = ((GpioImpl)gpio).pin;
+        }
+        try {
+            mThingsManager.setI2cFifoTrigger(idx, pin, edgeType, capacity);
+        } catch (RemoteException e) {
+            Log.d(TAG, "Remote Exception!!");
+            throw new IOException("fifo trigger is not set");
+        }
+    }
+
+    /**
+     * The drained samples come through the transfer region, which stays
+     * taken while a triggered drain waits.
+     */
+    public int drainFifo(ByteBuffer buffer, int timeoutMs) throws IOException, IllegalArgumentException {
+        int length = Math.min(buffer.remaining(), MAX_TRANSFER_SIZE);
+        synchronized(mTransferLock) {
+            ByteBuffer region = transferRegionOf(length);
+            int count = -1;
+            try {
+                count = mThingsManager.drainI2cFifo(idx, length, timeoutMs);
+            } catch (RemoteException e) {
+                Log.d(TAG, "Remote Exception!!");
+            }
+            if (count < 0)
+                throw new IOException("fifo drain is failed");
+
+            region.clear();
+            region.limit(count);
+            buffer.put(region);
+            return count;
+        }
+    }
+
+    public long getFifoDroppedCount() throws IOException {
+        try {
+            return mThingsManager.getI2cFifoDropped(idx);
+        } catch (RemoteException e) {
+            Log.d(TAG, "Remote Exception!!");
+            throw new IOException("fifo dropped count is not read");
+        }
+    }
+
+    public long getFifoFailedDrainCount() throws IOException {
+        try {
+            return mThingsManager.getI2cFifoFailedDrains(idx);
+        } catch (RemoteException e) {
+            Log.d(TAG, "Remote Exception!!");
+            throw new IOException("fifo failed drain count is not read");
+        }
+    }
+
+    public int getFifoStatus() throws IOException {
+        try {
+            return mThingsManager.getI2cFifoStatus(idx);
+        } catch (RemoteException e) {
+            Log.d(TAG, "Remote Exception!!");
+            throw new IOException("fifo status is not read");
+        }
+    }
+
+    /**
+     * Priority class of this device's transfers when several clients wait
+     * for the bus. Clients of the same class share the bus time fairly.
+     */
+    public void setPriority(int priority) throws IOException, IllegalArgumentException {
+        if ((priority < PRIORITY_BACKGROUND) || (priority > PRIORITY_REALTIME))
+            throw new IllegalArgumentException("priority should be BACKGROUND, NORMAL or REALTIME");
+        try {
+            mThingsManager.setI2cPriority(idx, priority);
+        } catch (RemoteException e) {
+            Log.d(TAG, "Remote Exception!!");
+        }
+    }
+
+    /**
+     * Runs all segments of the transaction in one binder call and one
+     * combined transfer, and stores the read data in the transaction.
+     */
+    public void transact(I2cTransaction transaction) throws IOException, IllegalArgumentException {
+        if (transaction.getSegmentCount() == 0)
+            throw new IllegalArgumentException("transaction is empty");
+
+        byte[] result = null;
+        try {
+            result = mThingsManager.transactI2c(idx, transaction.getReads(),
+                    transaction.getLengths(), transaction.getWriteData());
+        } catch (RemoteException e) {
+            Log.d(TAG, "Remote Exception!!");
+        }
+        if (result == null)
+            throw new IOException("transaction is failed");
+        transaction.setReadData(result);
+    }
+
+    public I2cPollingJob startPolling(int reg, int length, int rateHz, int capacity) throws IOException, IllegalArgumentException {
+        try {
+            int jobId = mThingsManager.startI2cPolling(idx, reg, length, rateHz, capacity);
+            return new I2cPollingJobImpl(jobId, length, rateHz, mThingsManager);
+        } catch (RemoteException e) {
+            Log.d(TAG, "Remote Exception!!");
+            throw new IOException("i2c polling job is not started");
+        }
+    }
+
+    public InputStream openReadStream(int reg, int length, int chunkSize, boolean incrementReg) throws IOException, IllegalArgumentException {
+        try {
+            ParcelFileDescriptor pfd = mThingsManager.openI2cReadStream(idx, reg, length, chunkSize, incrementReg);
+            return new I2cReadStream(pfd, length);
+        } catch (RemoteException e) {
+            Log.d(TAG, "Remote Exception!!");
+            throw new IOException("i2c read stream is not opened");
+        }
+    }
+
+    public OutputStream openWriteStream(int reg, int length, int chunkSize, boolean incrementReg) throws IOException, IllegalArgumentException {
+        try {
+            ParcelFileDescriptor pfd = mThingsManager.openI2cWriteStream(idx, reg, length, chunkSize, incrementReg);
+            return new I2cWriteStream(pfd, idx, length, mThingsManager);
+        } catch (RemoteException e) {
+            Log.d(TAG, "Remote Exception!!");
+            throw new IOException("i2c write stream is not opened");
+        }
+    }
+
+    private static void checkRange(int size, int offset, int length) {
+        if ((offset < 0) || (length < 0) || (offset > size - length))
+            throw new IllegalArgumentException("offset and length are out of the buffer");
+    }
+
+    private static boolean useRegion(int length) {
+        return (length > SMALL_TRANSFER) && (length <= MAX_TRANSFER_SIZE);
+    }
+
+    /**
+     * Transfer region that holds at least length bytes, mapped on first use
+     * and grown in powers of two. Called with mTransferLock held.
+     */
+    private ByteBuffer transferRegionOf(int length) throws IOException {
+        if ((transferRegion != null) && (transferRegion.capacity() >= length))
+            return transferRegion;
+
+        releaseTransferRegion();
+        int size = Math.max(Integer.highestOneBit(length - 1) << 1, MIN_TRANSFER_REGION);
+        size = Math.min(size, MAX_TRANSFER_SIZE);
+        try {
+            SharedMemory memory = mThingsManager.getI2cTransferRegion(idx, size);
+            try {
+                transferRegion = memory.mapReadWrite();
+            } catch (ErrnoException e) {
+                memory.close();
+                throw e;
+            }
+            transferMemory = memory;
+        } catch (RemoteException | ErrnoException e) {
+            Log.d(TAG, "Remote Exception!!");
+            throw new IOException("i2c transfer region is not mapped");
+        }
+        return transferRegion;
+    }
+
+    private void releaseTransferRegion() {
+        synchronized(mTransferLock) {
+            if (transferMemory == null)
+                return;
+            SharedMemory.unmap(transferRegion);
+            transferRegion = null;
+            transferMemory.close();
+            transferMemory = null;
+        }
+    }
+
+    private byte[] readArray(boolean hasReg, int reg, int length) throws IOException {
+        byte[] result = null;
+        try {
+            if (hasReg)
+                result = mThingsManager.readI2cRegBuffer(idx, reg, length);
+            else
+                result = mThingsManager.readI2c(idx, length);
+        } catch (RemoteException e) {
+            Log.d(TAG, "Remote Exception!!");
+        }
+        if ((result == null) || (result.length < length))
+            throw new IOException("read is failed");
+        return result;
+    }
+
+    /**
+     * Reads into the start of the transfer region and returns it, limited
+     * to the read data. A plain read is a read from register 0 on the service.
+     * Called with mTransferLock held.
+     */
+    private ByteBuffer readTransfer(boolean hasReg, int reg, int length) throws IOException {
+        ByteBuffer region = transferRegionOf(length);
+        boolean status = false;
+        try {
+            status = mThingsManager.readI2cTransfer(idx, hasReg ? reg : 0, length);
+        } catch (RemoteException e) {
+            Log.d(TAG, "Remote Exception!!");
+        }
+        if (status == false)
+            throw new IOException("read is failed");
+
+        region.clear();
+        region.limit(length);
+        return region;
+    }
+
+    private void read(boolean hasReg, int reg, byte[] buffer, int offset, int length) throws IOException {
+        if (!useRegion(length)) {
+            System.arraycopy(readArray(hasReg, reg, length), 0, buffer, offset, length);
+            return;
+        }
+        synchronized(mTransferLock) {
+            readTransfer(hasReg, reg, length).get(buffer, offset, length);
+        }
+    }
+
+    private void read(boolean hasReg, int reg, ByteBuffer buffer) throws IOException {
+        int length = buffer.remaining();
+        if (buffer.hasArray()) {
+            read(hasReg, reg, buffer.array(), buffer.arrayOffset() + buffer.position(), length);
+            buffer.position(buffer.position() + length);
+        } else if (!useRegion(length)) {
+            buffer.put(readArray(hasReg, reg, length), 0, length);
+        } else {
+            synchronized(mTransferLock) {
+                buffer.put(readTransfer(hasReg, reg, length));
+            }
+        }
+    }
+
+    /**
+     * Writes the first length bytes of the transfer region. Called with
+     * mTransferLock held.
+     */
+    private boolean writeTransfer(boolean hasReg, int reg, int length) {
+        try {
+            return mThingsManager.writeI2cTransfer(idx, hasReg ? reg : 0, length);
+        } catch (RemoteException e) {
+            Log.d(TAG, "Remote Exception!!");
+            return false;
+        }
+    }
+
+    private boolean writeArray(boolean hasReg, int reg, byte[] buffer, int length) {
+        try {
+            if (hasReg)
+                return mThingsManager.writeI2cRegBuffer(idx, reg, buffer, length);
+            return mThingsManager.writeI2c(idx, buffer, length);
+        } catch (RemoteException e) {
+            Log.d(TAG, "Remote Exception!!");
+            return false;
+        }
+    }
+
+    private void write(boolean hasReg, int reg, byte[] buffer, int offset, int length) throws IOException {
+        boolean status;
+        if (!useRegion(length)) {
+            if (offset != 0)
+                buffer = Arrays.copyOfRange(buffer, offset, offset + length);
+            status = writeArray(hasReg, reg, buffer, length);
+        } else {
+            synchronized(mTransferLock) {
+                ByteBuffer region = transferRegionOf(length);
+                region.clear();
+                region.put(buffer, offset, length);
+                status = writeTransfer(hasReg, reg, length);
+            }
+        }
+
+        if (status == false)
+            throw new IOException("write is failed");
+    }
+
+    private void write(boolean hasReg, int reg, ByteBuffer buffer) throws IOException {
+        int length = buffer.remaining();
+        if (buffer.hasArray()) {
+            write(hasReg, reg, buffer.array(), buffer.arrayOffset() + buffer.position(), length);
+            buffer.position(buffer.position() + length);
+            return;
+        }
+
+        boolean status;
+        if (!useRegion(length)) {
+            byte[] data = new byte[length];
+            buffer.get(data);
+            status = writeArray(hasReg, reg, data, length);
+        } else {
+            synchronized(mTransferLock) {
+                ByteBuffer region = transferRegionOf(length);
+                region.clear();
+                region.put(buffer);
+                status = writeTransfer(hasReg, reg, length);
+            }
+        }
+
+        if (status == false)
+            throw new IOException("write is failed");
+    }
 }
@@ -0,0 +1,84 @@
+/*
+ *    Copyright (c) 2019 Sangchul Go <luke.go@hardkernel.com>
+ *
+ *    OdroidThings is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as
+ *    published by the Free Software Foundation, either version 3 of the
+ *    License, or (at your option) any later version.
+ *
+ *    OdroidThings is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with OdroidThings.
+ *    If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.google.android.things.pio.impl;
+
+import com.google.android.things.pio.I2cPollingJob;
+import com.google.android.things.pio.IThingsManager;
+
+import android.os.RemoteException;
+
+import java.lang.AutoCloseable;
+import java.io.IOException;
+
+import android.util.Log;
+
+/**
+ * @hide
+ */
+public class I2cPollingJobImpl implements I2cPollingJob, AutoCloseable {
+    static final String TAG = "I2cPollingJobImpl";
+    final int jobId;
+    final int sampleSize;
+    final int rateHz;
+
+    private final IThingsManager mThingsManager;
+
+    public I2cPollingJobImpl(int jobId, int sampleSize, int rateHz, IThingsManager manager) {
+        this.jobId = jobId;
+        this.sampleSize = sampleSize;
+        this.rateHz = rateHz;
+        mThingsManager = manager;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            mThingsManager.stopI2cPolling(jobId);
+        } catch (RemoteException e) {
+            Log.d(TAG, "Remote Exception!!");
+            throw new IOException("i2c polling job is not closed");
+        }
+    }
+
+    public int getSampleSize() {
+        return sampleSize;
+    }
+
+    public int getRateHz() {
+        return rateHz;
+    }
+
+    public int read(long[] timestampsNs, byte[] data) throws IOException {
+        try {
+            return mThingsManager.readI2cPolled(jobId, timestampsNs, data);
+        } catch (RemoteException e) {
+            Log.d(TAG, "Remote Exception!!");
+            throw new IOException("i2c samples are not read");
+        }
+    }
+
+    public long getDroppedCount() throws IOException {
+        try {
+            return mThingsManager.getI2cPollingDropped(jobId);
+        } catch (RemoteException e) {
+            Log.d(TAG, "Remote Exception!!");
+            throw new IOException("i2c polling job is not available");
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ *    Copyright (c) 2019 Sangchul Go <luke.go@hardkernel.com>
+ *
+ *    OdroidThings is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as
+ *    published by the Free Software Foundation, either version 3 of the
+ *    License, or (at your option) any later version.
+ *
+ *    OdroidThings is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with OdroidThings.
+ *    If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.google.android.things.pio.impl;
+
+import android.os.ParcelFileDescriptor;
+
+import java.io.IOException;
+
+/**
+ * Read side of an i2c stream pipe. The things service writes exactly the
+ * stream length, so an early end of the pipe means the transfer failed.
+ * @hide
+ */
+public class I2cReadStream extends ParcelFileDescriptor.AutoCloseInputStream {
+    private int remaining;
+
+    public I2cReadStream(ParcelFileDescriptor pfd, int length) {
+        super(pfd);
+        remaining = length;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int data = super.read();
+        if (data < 0)
+            checkEnd();
+        else
+            remaining--;
+        return data;
+    }
+
+    @Override
+    public int read(byte[] buffer) throws IOException {
+        return read(buffer, 0, buffer.length);
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        int count = super.read(buffer, offset, length);
+        if (count < 0)
+            checkEnd();
+        else
+            remaining -= count;
+        return count;
+    }
+
+    private void checkEnd() throws IOException {
+        if (remaining > 0)
+            throw new IOException("i2c read stream is failed, " + remaining + " bytes are missing");
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ *    Copyright (c) 2019 Sangchul Go <luke.go@hardkernel.com>
+ *
+ *    OdroidThings is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as
+ *    published by the Free Software Foundation, either version 3 of the
+ *    License, or (at your option) any later version.
+ *
+ *    OdroidThings is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with OdroidThings.
+ *    If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.google.android.things.pio.impl;
+
+import com.google.android.things.pio.IThingsManager;
+
+import android.os.ParcelFileDescriptor;
+import android.os.RemoteException;
+import android.util.Log;
+
+import java.io.IOException;
+
+/**
+ * Write side of an i2c stream pipe. close() waits until the things service
+ * put the last chunk on the bus, and fails if the stream did not make it.
+ * @hide
+ */
+public class I2cWriteStream extends ParcelFileDescriptor.AutoCloseOutputStream {
+    static final String TAG = "I2cWriteStream";
+    private final int idx;
+    private final IThingsManager mThingsManager;
+    private int remaining;
+    private boolean closed;
+
+    public I2cWriteStream(ParcelFileDescriptor pfd, int idx, int length, IThingsManager manager) {
+        super(pfd);
+        this.idx = idx;
+        remaining = length;
+        mThingsManager = manager;
+    }
+
+    @Override
+    public void write(int data) throws IOException {
+        checkLength(1);
+        super.write(data);
+        remaining--;
+    }
+
+    @Override
+    public void write(byte[] buffer) throws IOException {
+        write(buffer, 0, buffer.length);
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) throws IOException {
+        checkLength(length);
+        super.write(buffer, offset, length);
+        remaining -= length;
+    }
+
+    private void checkLength(int length) {
+        if (length > remaining)
+            throw new IllegalArgumentException("write is over the stream length");
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        // closing our end lets the service see the end of a short stream.
+        super.close();
+
+        boolean result = false;
+        try {
+            result = mThingsManager.finishI2cWriteStream(idx);
+        } catch (RemoteException e) {
+            Log.d(TAG, "Remote Exception!!");
+        }
+        if ((result == false) || (remaining > 0))
+            throw new IOException("i2c write stream is failed");
+    }
+}
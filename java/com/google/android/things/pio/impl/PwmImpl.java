@@ -36,6 +36,12 @@ public class PwmImpl implements Pwm {
     private final IThingsManager mThingsManager;
     private final int thingsId;
 
+    private boolean writeCacheEnabled;
+    private boolean cachedEnabledValid;
+    private boolean cachedEnabled;
+    private double cachedDutyCycle = Double.NaN;
+    private double cachedFrequencyHz = Double.NaN;
+
     public PwmImpl(String name, int pin, IThingsManager manager, int thingsId) {
         this.name = name;
         this.pin = pin;
@@ -65,14 +71,21 @@ public class PwmImpl implements Pwm {
     }
 
     public void setEnabled(boolean enabled) throws IOException {
+        if (writeCacheEnabled && cachedEnabledValid && (cachedEnabled == enabled))
+            return;
+
         boolean result = false;
         try {
             result = mThingsManager.setEnabled(pin, enabled);
         } catch(RemoteException e) {
             Log.d(TAG, "setEnabled is not implemented");
         }
-        if (result == false)
+        if (result == false) {
+            cachedEnabledValid = false;
             throw new IOException("set enable is failed");
+        }
+        cachedEnabled = enabled;
+        cachedEnabledValid = true;
     }
 
     public void setPwmDutyCycle(double duty_cycle)
@@ -80,6 +93,8 @@ public class PwmImpl implements Pwm {
         if ((duty_cycle < 0) || (duty_cycle > 100)) {
             throw new IllegalArgumentException("duty_cycle should between 0 and 100");
         }
+        if (writeCacheEnabled && (cachedDutyCycle == duty_cycle))
+            return;
 
         boolean result = false;
         try {
@@ -88,14 +103,19 @@ public class PwmImpl implements Pwm {
             Log.d(TAG, "setPwmDutyCycle is not implemented");
         }
 
-        if (result == false)
+        if (result == false) {
+            cachedDutyCycle = Double.NaN;
             throw new IOException("set duty cycle is failed");
+        }
+        cachedDutyCycle = duty_cycle;
     }
 
     public void setPwmFrequencyHz(double freq_hz)
             throws IllegalArgumentException, IOException {
         if (freq_hz < 0)
             throw new IllegalArgumentException("frequency must be positive");
+        if (writeCacheEnabled && (cachedFrequencyHz == freq_hz))
+            return;
 
         boolean result = false;
         try {
@@ -104,7 +124,28 @@ public class PwmImpl implements Pwm {
             Log.d(TAG, "setPwmFrequencyHz is not implemented");
         }
 
-        if (result == false)
+        if (result == false) {
+            cachedFrequencyHz = Double.NaN;
             throw new IOException("set frequency is failed");
+        }
+        cachedFrequencyHz = freq_hz;
+    }
+
+    /**
+     * Skip enable, duty cycle and frequency writes that repeat the value
+     * this process set last.
+     */
+    public void setWriteCacheEnabled(boolean enabled) {
+        writeCacheEnabled = enabled;
+        invalidateWriteCache();
+    }
+
+    /**
+     * Forget the last written values, so the next calls always reach the pwm.
+     */
+    public void invalidateWriteCache() {
+        cachedEnabledValid = false;
+        cachedDutyCycle = Double.NaN;
+        cachedFrequencyHz = Double.NaN;
     }
 }
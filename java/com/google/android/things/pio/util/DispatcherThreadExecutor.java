@@ -0,0 +1,109 @@
+/*
+ *    Copyright (c) 2019 Sangchul Go <luke.go@hardkernel.com>
+ *
+ *    OdroidThings is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as
+ *    published by the Free Software Foundation, either version 3 of the
+ *    License, or (at your option) any later version.
+ *
+ *    OdroidThings is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with OdroidThings.
+ *    If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.google.android.things.pio.util;
+
+import android.os.Process;
+import android.util.Log;
+
+import java.io.Closeable;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs commands in order on a dedicated thread of its own priority, away
+ * from any Looper. The queue is a preallocated array, so steady-state
+ * execution does not allocate. execute() keeps the Executor contract and
+ * throws when the queue is full; binder threads use offer(), which drops
+ * and counts the command instead.
+ */
+public class DispatcherThreadExecutor implements Executor, Closeable {
+    private static final String TAG = "DispatcherThreadExecutor";
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    private final ArrayBlockingQueue<Runnable> mQueue;
+    private final Thread mThread;
+    private volatile boolean closed;
+    private final AtomicLong dropped = new AtomicLong();
+
+    public DispatcherThreadExecutor(String name) {
+        this(name, Process.THREAD_PRIORITY_URGENT_DISPLAY, DEFAULT_CAPACITY);
+    }
+
+    public DispatcherThreadExecutor(String name, final int priority, int capacity) {
+        mQueue = new ArrayBlockingQueue<>(capacity);
+        mThread = new Thread(new Runnable() {
+            public void run() {
+                Process.setThreadPriority(priority);
+                loop();
+            }
+        }, name);
+        mThread.start();
+    }
+
+    private void loop() {
+        while (!closed) {
+            Runnable command;
+            try {
+                command = mQueue.take();
+            } catch (InterruptedException e) {
+                continue;
+            }
+            try {
+                command.run();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "command failed", e);
+            }
+        }
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        if (closed)
+            throw new RejectedExecutionException("dispatcher thread is closed");
+        if (!mQueue.offer(command))
+            throw new RejectedExecutionException("dispatcher queue is full");
+    }
+
+    /**
+     * Queues command unless the queue is full or the thread is closed.
+     *
+     * @return false if command was dropped.
+     */
+    public boolean offer(Runnable command) {
+        if (!closed && mQueue.offer(command))
+            return true;
+        dropped.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Commands dropped because the queue was full or the thread was closed.
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        mThread.interrupt();
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ *    Copyright (c) 2019 Sangchul Go <luke.go@hardkernel.com>
+ *
+ *    OdroidThings is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as
+ *    published by the Free Software Foundation, either version 3 of the
+ *    License, or (at your option) any later version.
+ *
+ *    OdroidThings is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with OdroidThings.
+ *    If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.google.android.things.pio.util;
+
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Single producer, single consumer ring of gpio edges in shared memory.
+ * The things service writes edges, the client drains them.
+ *
+ * Layout, in native byte order:
+ *   0  long  write count, owned by the producer
+ *   8  long  read count, owned by the consumer
+ *  16  int   capacity
+ *  20  int   dropped edges, cumulative, owned by the producer
+ *  32  long  entries[capacity], (timestampNs << 1) | level
+ *
+ * Ordering protocol of the two counts. Both sides of the ring may be in
+ * different processes, so the region is accessed with plain loads and stores
+ * and the order comes from VarHandle.fullFence():
+ *  1. after loading the other side's count, so entries are not accessed
+ *     before the count that covers them;
+ *  2. before storing its own count, so the entries are written, or read,
+ *     before the other side can see the count;
+ *  3. after storing its own count, before loading the other side's count
+ *     again. The producer asks for a wake-up only when it writes into an
+ *     empty ring and the consumer drains until it finds the ring empty, so
+ *     this store-load fence keeps a wake-up from being lost.
+ * @hide
+ */
+public class EdgeRingBuffer {
+    public static final int MAX_CAPACITY = 1 << 16;
+
+    private static final int WRITE_OFFSET = 0;
+    private static final int READ_OFFSET = 8;
+    private static final int CAPACITY_OFFSET = 16;
+    private static final int DROPPED_OFFSET = 20;
+    private static final int ENTRY_OFFSET = 32;
+    private static final int ENTRY_SIZE = 8;
+
+    private final ByteBuffer mBuffer;
+    private final int capacity;
+    private long writeCount;
+    private int dropped;
+
+    public static int sizeOf(int capacity) {
+        return ENTRY_OFFSET + capacity * ENTRY_SIZE;
+    }
+
+    /**
+     * Producer side, initializes the header of a freshly mapped region.
+     */
+    public EdgeRingBuffer(ByteBuffer buffer, int capacity) {
+        mBuffer = buffer.order(ByteOrder.nativeOrder());
+        this.capacity = capacity;
+        mBuffer.putLong(WRITE_OFFSET, 0);
+        mBuffer.putLong(READ_OFFSET, 0);
+        mBuffer.putInt(CAPACITY_OFFSET, capacity);
+        mBuffer.putInt(DROPPED_OFFSET, 0);
+    }
+
+    /**
+     * Consumer side, attaches to a region initialized by the producer.
+     */
+    public EdgeRingBuffer(ByteBuffer buffer) {
+        mBuffer = buffer.order(ByteOrder.nativeOrder());
+        capacity = mBuffer.getInt(CAPACITY_OFFSET);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getDroppedCount() {
+        return mBuffer.getInt(DROPPED_OFFSET);
+    }
+
+    /**
+     * Appends an edge, or counts it as dropped when the ring is full.
+     *
+     * @return true if the ring was empty and the consumer should be woken up.
+     */
+    public boolean write(long timestampNs, boolean level) {
+        long readCount = mBuffer.getLong(READ_OFFSET);
+        VarHandle.fullFence();
+        if (writeCount - readCount >= capacity) {
+            mBuffer.putInt(DROPPED_OFFSET, ++dropped);
+            return false;
+        }
+
+        int offset = ENTRY_OFFSET + (int)(writeCount % capacity) * ENTRY_SIZE;
+        mBuffer.putLong(offset, (timestampNs << 1) | (level ? 1 : 0));
+        VarHandle.fullFence();
+        mBuffer.putLong(WRITE_OFFSET, ++writeCount);
+        VarHandle.fullFence();
+
+        return mBuffer.getLong(READ_OFFSET) == writeCount - 1;
+    }
+
+    /**
+     * Moves up to timestampsNs.length edges out of the ring.
+     *
+     * @return number of edges copied, 0 when the ring is empty.
+     */
+    public int drain(long[] timestampsNs, boolean[] levels) {
+        long readCount = mBuffer.getLong(READ_OFFSET);
+        long available = mBuffer.getLong(WRITE_OFFSET) - readCount;
+        VarHandle.fullFence();
+        int count = (int)Math.min(available, timestampsNs.length);
+
+        for (int i=0; i<count; i++) {
+            int offset = ENTRY_OFFSET + (int)((readCount + i) % capacity) * ENTRY_SIZE;
+            long entry = mBuffer.getLong(offset);
+            timestampsNs[i] = entry >>> 1;
+            levels[i] = (entry & 1) != 0;
+        }
+
+        VarHandle.fullFence();
+        mBuffer.putLong(READ_OFFSET, readCount + count);
+        VarHandle.fullFence();
+        return count;
+    }
+}